@@ -0,0 +1,38 @@
+package com.hmdp.Interceptor;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.servlet.HandlerInterceptor;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+
+/**
+ * 管理接口校验器，只允许配置中的用户访问
+ */
+
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminIds;
+
+    public AdminInterceptor(Set<Long> adminIds) {
+        this.adminIds = adminIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //未登录返回401，不是管理员返回403
+        UserDTO user = UserHolder.getUser();
+        if(user == null){
+            response.setStatus(401);
+            return false;
+        }
+        if(!adminIds.contains(user.getId())){
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+
+}
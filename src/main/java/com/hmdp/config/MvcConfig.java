@@ -1,13 +1,17 @@
 package com.hmdp.config;
 
+import com.hmdp.Interceptor.AdminInterceptor;
 import com.hmdp.Interceptor.LoginInterceptor;
 import com.hmdp.Interceptor.TokenRefreshInterceptor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.HashSet;
+import java.util.List;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
@@ -15,6 +19,10 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    //可以访问管理接口的用户id
+    @Value("${hmdp.admin.user-ids:}")
+    private List<Long> adminIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new LoginInterceptor())
@@ -26,6 +34,15 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/blog/hot",
                         "/voucher/**"
                 ).order(1);
+        registry.addInterceptor(new AdminInterceptor(new HashSet<>(adminIds)))
+                .addPathPatterns(
+                        "/voucher-order/partitions/**",
+                        "/cache/bloom/**",
+                        //补充秒杀券库存，查询库存不受影响
+                        "/voucher/seckill/stock/*/replenish",
+                        //新增、修改类型，查询走/shop-type/list不受影响
+                        "/shop-type"
+                ).order(2);
         registry.addInterceptor(new TokenRefreshInterceptor(stringRedisTemplate))
                 .addPathPatterns("/**").order(0);
     }
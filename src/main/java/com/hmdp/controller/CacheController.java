@@ -0,0 +1,85 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.BloomFilterClient;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.LogicalExpireRefresher;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存管理控制器
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private BloomFilterClient bloomFilterClient;
+
+    @Resource
+    private LogicalExpireRefresher logicalExpireRefresher;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    /**
+     * 查询各级缓存命中率
+     * @return 命中统计
+     */
+    @GetMapping("/stats")
+    public Result queryStats() {
+        return Result.ok(cacheClient.getStats());
+    }
+
+    /**
+     * 查询当前的热点key
+     * @return 热点key及本节点窗口内的访问次数
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.getHotKeys());
+    }
+
+    /**
+     * 查询逻辑过期数据的过期时间分布与提前刷新统计
+     * @return 刷新统计
+     */
+    @GetMapping("/refresh/stats")
+    public Result queryRefreshStats() {
+        return Result.ok(logicalExpireRefresher.getStats());
+    }
+
+    /**
+     * 查询启动预热各阶段的数量与耗时
+     * @return 预热结果
+     */
+    @GetMapping("/warm-up")
+    public Result queryWarmUpReport() {
+        return Result.ok(cacheWarmer.getReport());
+    }
+
+    /**
+     * 从数据库重建布隆过滤器，会全表扫描，仅管理员可调用
+     * @param name 过滤器名称，shop或blog
+     * @return 无
+     */
+    @PostMapping("/bloom/{name}/rebuild")
+    public Result rebuildBloomFilter(@PathVariable("name") String name) {
+        if (!bloomFilterClient.rebuild(name)) {
+            return Result.fail("过滤器不存在！");
+        }
+        return Result.ok();
+    }
+}
@@ -1,12 +1,9 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -43,10 +40,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，加入布隆过滤器
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -64,23 +59,94 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param x 经度，与纬度同时传入时按距离排序
+     * @param y 纬度
      * @return 商铺列表
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y
+    ) {
+        return shopService.queryShopByType(typeId, current, x, y);
+    }
+
+    /**
+     * 查询商铺排行榜
+     * @param field 排行字段：sold、score或comments
+     * @param typeId 商铺类型，不传时为全站榜
+     * @param window 时间范围：all、day或week，评分只有总榜
+     * @param n 名次数量，最多100
+     * @return 名次、数值与商铺
+     */
+    @GetMapping("/rank")
+    public Result queryShopRank(
+            @RequestParam(value = "field", defaultValue = "sold") String field,
+            @RequestParam(value = "typeId", required = false) Long typeId,
+            @RequestParam(value = "window", defaultValue = "all") String window,
+            @RequestParam(value = "n", defaultValue = "10") Integer n
+    ) {
+        return shopService.queryShopRank(field, typeId, window, n);
+    }
+
+    /**
+     * 查询商铺在排行榜中的名次
+     * @param id 商铺id
+     * @param field 排行字段：sold、score或comments
+     * @param typeId 商铺类型，不传时为全站榜
+     * @param window 时间范围：all、day或week
+     * @return 名次与数值，不在榜上时没有数据
+     */
+    @GetMapping("/rank/{id}")
+    public Result queryRankOfShop(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "field", defaultValue = "sold") String field,
+            @RequestParam(value = "typeId", required = false) Long typeId,
+            @RequestParam(value = "window", defaultValue = "all") String window
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryRankOfShop(id, field, typeId, window);
     }
 
     /**
-     * 根据商铺名称关键字分页查询商铺信息
+     * 根据商铺类型滚动查询商铺信息，按排序字段从大到小
+     * @param typeId 商铺类型
+     * @param sortBy 排序字段：sold、score或comments
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表与下一页的游标
+     */
+    @GetMapping("/of/type/scroll")
+    public Result scrollShopByType(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "sortBy", defaultValue = "sold") String sortBy,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.scrollShopByType(typeId, sortBy, cursor);
+    }
+
+    /**
+     * 按距离由近到远滚动查询附近商铺
+     * @param typeId 商铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param radius 搜索半径（米），不传时使用默认半径，0表示不限制
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表与下一页的游标
+     */
+    @GetMapping("/of/nearby")
+    public Result queryShopNearby(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam("x") Double x,
+            @RequestParam("y") Double y,
+            @RequestParam(value = "radius", required = false) Double radius,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopNearby(typeId, x, y, radius, cursor);
+    }
+
+    /**
+     * 根据商铺名称或商圈关键字分页查询商铺信息
      * @param name 商铺名称关键字
      * @param current 页码
      * @return 商铺列表
@@ -90,11 +156,21 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        // 名称与商圈的倒排索引中查询
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 根据商铺名称或商圈关键字滚动查询商铺信息
+     * @param name 关键字
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表与下一页的游标
+     */
+    @GetMapping("/search")
+    public Result searchShopByName(
+            @RequestParam("name") String name,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.searchShopByName(name, cursor);
     }
 }
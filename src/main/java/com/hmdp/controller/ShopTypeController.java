@@ -4,9 +4,8 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.service.IShopTypeService;
-import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.annotation.Resource;
 import java.util.List;
@@ -26,7 +25,23 @@ public class ShopTypeController {
     private IShopTypeService typeService;
 
     @GetMapping("list")
-    public Result queryTypeList() {
+    public Result queryTypeList(WebRequest request) {
+        // 内容未变化时返回304，不再传输列表
+        if (request.checkNotModified(typeService.getTypeListETag())) {
+            return null;
+        }
         return typeService.queryTypeList();
     }
+
+    @PostMapping
+    public Result saveType(@RequestBody ShopType shopType) {
+        // 仅管理员可调用，写入数据库，通知各节点刷新类型列表
+        return typeService.saveType(shopType);
+    }
+
+    @PutMapping
+    public Result updateType(@RequestBody ShopType shopType) {
+        // 仅管理员可调用，更新数据库，通知各节点刷新类型列表
+        return typeService.updateType(shopType);
+    }
 }
@@ -45,6 +45,27 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 查询秒杀券的剩余库存
+     * @param voucherId 优惠券id
+     * @return 剩余库存，分段时为各段之和
+     */
+    @GetMapping("/seckill/stock/{id}")
+    public Result querySeckillStock(@PathVariable("id") Long voucherId) {
+        return voucherService.querySeckillStock(voucherId);
+    }
+
+    /**
+     * 补充秒杀券库存，仅管理员可调用
+     * @param voucherId 优惠券id
+     * @param amount 补充的数量，必须大于0
+     * @return 无
+     */
+    @PostMapping("/seckill/stock/{id}/replenish")
+    public Result replenishSeckillStock(@PathVariable("id") Long voucherId, @RequestParam("amount") Integer amount) {
+        return voucherService.replenishSeckillStock(voucherId, amount);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -3,8 +3,10 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -28,4 +30,16 @@ public class VoucherOrderController {
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    @PutMapping("partitions/{count}")
+    public Result resizeOrderPartitions(@PathVariable("count") Integer count) {
+        // 后台排空现有分区后修改订单消息队列的分区数量，返回任务id
+        return voucherOrderService.resizeOrderPartitions(count);
+    }
+
+    @GetMapping("partitions/jobs/{id}")
+    public Result queryResizeJob(@PathVariable("id") String jobId) {
+        // 查询分区调整任务的状态
+        return voucherOrderService.queryResizeJob(jobId);
+    }
 }
@@ -9,4 +9,6 @@ public class ScrollResult {
     private List<?> list;
     private Long minTime;
     private Integer offset;
+    //下一页的游标，为空时没有更多数据
+    private String cursor;
 }
@@ -0,0 +1,17 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.Shop;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShopRankDTO {
+    //名次，从1开始
+    private Integer rank;
+    //销量、评分或评论数
+    private Long value;
+    private Shop shop;
+}
@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Collection;
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +19,31 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
+
+    int cacheShops(Collection<Shop> shops);
+
+    boolean incrementCounter(Long id, String field, int delta);
+
+    void recordSold(Map<Long, Long> sold);
+
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result queryShopNearby(Integer typeId, Double x, Double y, Double radiusMeters, String cursor);
+
+    int loadShopGeo();
+
+    Result queryShopByName(String name, Integer current);
+
+    Result searchShopByName(String name, String cursor);
+
+    Result scrollShopByType(Integer typeId, String sortBy, String cursor);
+
+    int loadShopList();
+
+    Result queryShopRank(String field, Long typeId, String window, Integer n);
+
+    Result queryRankOfShop(Long id, String field, Long typeId, String window);
 }
@@ -17,4 +17,12 @@ import java.util.List;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result queryTypeList();
+
+    String getTypeListETag();
+
+    Result saveType(ShopType shopType);
+
+    Result updateType(ShopType shopType);
+
+    void refreshTypeList();
 }
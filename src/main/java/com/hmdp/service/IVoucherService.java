@@ -17,4 +17,8 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    Result querySeckillStock(Long voucherId);
+
+    Result replenishSeckillStock(Long voucherId, Integer amount);
 }
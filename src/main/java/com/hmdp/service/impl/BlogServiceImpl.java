@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
@@ -14,7 +13,9 @@ import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
+import com.hmdp.service.IShopService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
@@ -23,10 +24,8 @@ import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
@@ -51,6 +50,12 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private BloomFilterClient bloomFilterClient;
+
+    @Resource
+    private IShopService shopService;
+
     @Override
     public Result queryHotBlog(Integer current) {
         // 根据用户查询
@@ -59,16 +64,18 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 批量查询用户
+        queryBlogUsers(records);
+        records.forEach(this::isBlogLiked);
         return Result.ok(records);
     }
 
     @Override
     public Result queryBlogById(Long id) {
+        //0.布隆过滤器判断blog是否存在
+        if(!bloomFilterClient.mightContain(BloomFilterClient.BLOG, id)){
+            return Result.fail("笔记不存在！");
+        }
         //1.查询blog
         Blog blog = getById(id);
         if (blog == null) {
@@ -132,13 +139,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         //2.解析出其中的用户id
         List<Long> userIds = top5Id.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idsStr = StrUtil.join(",", userIds);
-        //3.根据用户id查询用户 WHERE id IN(5,1) ORDER BY FIELD(id, 5, 1)
-        List<UserDTO> userDTOs = userService.query()
-                .in("id",userIds).last(" ORDER BY FIELD(id," + idsStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        //3.根据用户id批量查询用户，结果与id顺序一致
+        List<UserDTO> userDTOs = userService.queryUserDTOs(userIds);
         return Result.ok(userDTOs);
     }
 
@@ -152,6 +154,11 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if(!isSuccess) {
            Result.fail("新增笔记失败");
         }
+        bloomFilterClient.add(BloomFilterClient.BLOG, blog.getId());
+        //探店笔记计入店铺的评论数与点评排行榜
+        if(blog.getShopId() != null){
+            shopService.incrementCounter(blog.getShopId(), "comments", 1);
+        }
         //3.查询作者的所有粉丝 select * from tb_follow where follow_user_id = ?
         List<Follow> fans = followService.query().eq("follow_user_id", userId).list();
         //4.推送笔记给所有粉丝
@@ -199,9 +206,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         //5.根据id查询blog
         String idsStr = StrUtil.join(",", ids);
         List<Blog> blogs = query().in("id",ids).last(" ORDER BY FIELD(id," + idsStr + ")").list();
+        //5.1.批量查询blog有关用户
+        queryBlogUsers(blogs);
         for (Blog blog : blogs) {
-            //5.1.查询blog有关用户
-            queryBlogUser(blog);
             //5.2.查询blog是否被点赞
             isBlogLiked(blog);
         }
@@ -213,6 +220,23 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(scrollResult);
     }
 
+    /**
+     * 批量查询blog有关用户，所有作者只查询一次缓存
+     * @param blogs
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOs(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
+
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
         User user = userService.getById(userId);
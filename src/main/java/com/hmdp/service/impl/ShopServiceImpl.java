@@ -1,24 +1,35 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.ShopRankDTO;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilterClient;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheOutboxPublisher;
+import com.hmdp.utils.ShopGeoClient;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopLeaderboard;
+import com.hmdp.utils.ShopListClient;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.SystemConstants;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -39,6 +50,44 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private BloomFilterClient bloomFilterClient;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private CacheOutboxPublisher cacheOutboxPublisher;
+
+    @Resource
+    private ShopGeoClient shopGeoClient;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Resource
+    private ShopListClient shopListClient;
+
+    @Resource
+    private ShopLeaderboard shopLeaderboard;
+
+    //店铺缓存模式：value（整体序列化）或hash（按字段保存，可原地更新单个字段）
+    @Value("${hmdp.cache.shop.mode:value}")
+    private String shopCacheMode;
+
+    private static final String CACHE_MODE_HASH = "hash";
+
+    //可原地增减的计数字段
+    private static final Set<String> COUNTER_FIELDS = CollUtil.newHashSet("sold", "comments", "score");
+
+    //排行榜一次最多查询的名次
+    private static final int MAX_RANK_SIZE = 100;
+
+    //附近店铺的搜索半径
+    @Value("${hmdp.shop.geo.radius-meters:5000}")
+    private double geoRadiusMeters;
+
+
     /**
      * 查询店铺id
      * @param id
@@ -50,8 +99,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //Shop shop = queryWithPassThrough(id);
         //Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
-        //解决缓存击穿方案——互斥锁
-        Shop shop = queryWithMutex(id);
+        //解决缓存击穿方案——互斥锁，记录包含各级缓存与数据库在内的整体耗时
+        //按字段缓存时使用哈希结构
+        Shop shop = isHashMode()
+                ? cacheMetrics.timer("shop.query", CACHE_SHOP_HASH_KEY).record(() -> queryWithHash(id))
+                : cacheMetrics.timer("shop.query", CACHE_SHOP_KEY).record(() -> queryWithMutex(id));
 
         //解决缓存击穿方案——逻辑过期
         //Shop shop = queryWithLogicalExpire(id);
@@ -68,54 +120,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      * @param id
      * @return
      */
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
     public Shop queryWithLogicalExpire(Long id){
-        String key = CACHE_SHOP_KEY + id;
-        //1.从Redis中查询缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        //2.判断是否存在
-        if(StrUtil.isBlank(shopJson)){
-            //3.不存在，直接返回错误
-            return null;
-        }
-        //4.命中，反序列化JSON为对象
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        //5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())){
-        //5.1.未过期，直接返回店铺信息
-            return shop;
-        }
-        //5.2.已过期，开始缓存重建
-
-        //6.缓存重建
-        //6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id ;
-        //6.2.判断是否获取成功
-        if(tryLock(lockKey)) {
-            //DoubleCheck
-            shopJson = stringRedisTemplate.opsForValue().get(key);
-            redisData = JSONUtil.toBean(shopJson, RedisData.class);
-            expireTime = redisData.getExpireTime();
-            if(expireTime.isAfter(LocalDateTime.now())){
-                shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-                return shop;
-            }
-            //6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(()->{
-                try {
-                    this.savaShop2Redis(id , 20L);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    unLock(lockKey);
-                }
-            });
-        }
-        //6.4.否则返回过期的商铺信息
-        return shop;
+        return cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
     /**
@@ -126,77 +132,54 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     private void savaShop2Redis(Long id, Long expireMinutes){
         //1.查询相应店铺
         Shop shop = getById(id);
-        //2.封装店铺信息
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusMinutes(expireMinutes));
-        //3.写入Redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        //2.封装店铺信息并写入Redis
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireMinutes, TimeUnit.MINUTES);
     }
 
     /**
      * 封装
      * 解决缓存击穿方案——互斥锁
+     * 同一节点内的并发请求合并为一次重建，等待有上限，不再休眠递归
      * @param id
      * @return
      */
     public Shop queryWithMutex(Long id){
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
 
-        String key = CACHE_SHOP_KEY + id;
-
-        //1.从Redis中查询缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        //2.判断是否存在
-        if(StrUtil.isNotBlank(shopJson)){
-            //3.存在则返回
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-
-        //判断命中的是否为空串
-        if(shopJson != null){
-            return null;
-        }
+    /**
+     * 封装
+     * 按字段缓存，一次HGETALL读取
+     * @param id
+     * @return
+     */
+    public Shop queryWithHash(Long id){
+        return cacheClient.queryWithHash(CACHE_SHOP_HASH_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
 
-        String lockKey = LOCK_SHOP_KEY + id;
-        Shop shop = null;
-
-        try {
-            //4.实现缓存重建
-            //4.1.获取互斥锁
-            Boolean isLock = tryLock(lockKey);
-            //4.2.判断是否获取成功
-            if (!isLock){
-                //4.3.失败，休眠重试
-                Thread.sleep(50);
-                return queryWithMutex(id);
-            }
-            //4.4.DoubleCheck
-            shopJson = stringRedisTemplate.opsForValue().get(key);
-            if(StrUtil.isNotBlank(shopJson)){
-                return JSONUtil.toBean(shopJson, Shop.class);
-            }
-            if(shopJson != null){
-                return null;
+    /**
+     * 按查询店铺时读取的格式写入缓存，用于预热
+     * @param shops
+     * @return 写入的店铺数量
+     */
+    @Override
+    public int cacheShops(Collection<Shop> shops) {
+        if(isHashMode()){
+            for (Shop shop : shops) {
+                cacheClient.setHash(CACHE_SHOP_HASH_KEY + shop.getId(), shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
             }
-            //4.5.成功，根据id从数据库中查询
-            shop = getById(id);
-            if(shop == null){
-                //不存在，返回错误
-                stringRedisTemplate.opsForValue().set(key, "",CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
+        } else {
+            Map<Long, Shop> values = new LinkedHashMap<>(shops.size() * 2);
+            for (Shop shop : shops) {
+                values.put(shop.getId(), shop);
             }
-            //6.存在，写入Redis内存
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop),CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            //7.释放互斥锁
-            unLock(lockKey);
+            cacheClient.setBatch(CACHE_SHOP_KEY, values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         }
+        return shops.size();
+    }
 
-        //8.返回
-        return shop;
+    private boolean isHashMode(){
+        return CACHE_MODE_HASH.equalsIgnoreCase(shopCacheMode);
     }
 
     ///**
@@ -233,20 +216,22 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     //}
 
     /**
-     * 上锁
-     * @param key
-     * @return
-     */
-    private Boolean tryLock(String key){
-        return stringRedisTemplate.opsForValue().setIfAbsent(key,"1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-    }
-
-    /**
-     * 释放锁
-     * @param key
+     * 新增店铺
+     * @param shop
+     * @return 店铺id
      */
-    private void unLock(String key){
-        stringRedisTemplate.delete(key);
+    @Override
+    public Result saveShop(Shop shop) {
+        //1.写入数据库
+        save(shop);
+        //2.加入布隆过滤器
+        bloomFilterClient.add(BloomFilterClient.SHOP, shop.getId());
+        //3.加入附近店铺与名称的索引
+        shopGeoClient.add(shop);
+        shopNameIndex.refresh(shop.getId());
+        //4.加入所属类型的店铺列表
+        shopListClient.refresh(shop.getId(), null);
+        return Result.ok(shop.getId());
     }
 
     /**
@@ -262,10 +247,311 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("商铺id不能为空！");
         }
-        //2.更新数据库
+        //2.更新数据库，类型或坐标变化时事务提交后同步附近店铺的索引
+        Shop old = shop.getTypeId() != null || shop.getX() != null || shop.getY() != null ? getById(id) : null;
         updateById(shop);
-        //3.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        if(old != null){
+            CacheOutboxPublisher.afterCommit(() -> shopGeoClient.move(old, shop));
+        }
+        //名称、商圈或评分变化时事务提交后同步名称索引
+        if(shop.getName() != null || shop.getArea() != null || shop.getScore() != null){
+            CacheOutboxPublisher.afterCommit(() -> shopNameIndex.refresh(id));
+        }
+        //类型或排序字段变化时事务提交后同步店铺列表
+        if(shop.getTypeId() != null || shop.getSold() != null || shop.getScore() != null || shop.getComments() != null){
+            Long oldTypeId = old == null ? null : old.getTypeId();
+            CacheOutboxPublisher.afterCommit(() -> shopListClient.refresh(id, oldTypeId));
+        }
+        //3.在同一事务中记录缓存失效，提交后删除缓存并通知各节点删除本地缓存，删除失败时由发件箱重试
+        //按字段缓存时同样删除整个hash，下次读取时从数据库加载，update_time等由数据库维护的字段也随之更新
+        cacheOutboxPublisher.enqueue(isHashMode() ? CACHE_SHOP_HASH_KEY + id : CACHE_SHOP_KEY + id);
         return Result.ok();
     }
+
+    /**
+     * 增减店铺的计数字段，按字段缓存时用HINCRBY原地修改，不再删除缓存
+     * @param id
+     * @param field sold、comments或score
+     * @param delta 增量，可为负
+     * @return 数据库是否更新成功
+     */
+    @Override
+    @Transactional
+    public boolean incrementCounter(Long id, String field, int delta) {
+        if(!COUNTER_FIELDS.contains(field)){
+            throw new IllegalArgumentException("不支持的计数字段：" + field);
+        }
+        //1.更新数据库，字段名来自白名单
+        boolean success = update().setSql(field + " = " + field + " + " + delta).eq("id", id).update();
+        if(!success){
+            return false;
+        }
+        //2.计数影响店铺列表与排行榜，评分还影响名称搜索的排序
+        CacheOutboxPublisher.afterCommit(() -> {
+            Shop current = shopListClient.refresh(id, null);
+            if(current != null){
+                shopLeaderboard.increment(current.getTypeId(), id, field, delta);
+            }
+        });
+        if("score".equals(field)){
+            CacheOutboxPublisher.afterCommit(() -> shopNameIndex.refresh(id));
+        }
+        //3.更新缓存，回滚时不修改
+        if(isHashMode()){
+            CacheOutboxPublisher.afterCommit(() -> cacheClient.incrementHashField(CACHE_SHOP_HASH_KEY + id, field, delta));
+        } else {
+            cacheOutboxPublisher.enqueue(CACHE_SHOP_KEY + id);
+        }
+        return true;
+    }
+
+    /**
+     * 记录下单产生的销量，在下单事务中累加数据库中的销量，事务提交后写入排行榜
+     * 按店铺id顺序更新，多个订单事务同时更新多家店铺时不会互相死锁
+     * @param sold 店铺id -> 销量增量
+     */
+    @Override
+    @Transactional
+    public void recordSold(Map<Long, Long> sold) {
+        if(sold.isEmpty()){
+            return;
+        }
+        //1.更新数据库，与订单一起提交或回滚
+        for (Map.Entry<Long, Long> entry : new TreeMap<>(sold).entrySet()) {
+            update().setSql("sold = sold + " + entry.getValue()).eq("id", entry.getKey()).update();
+        }
+        //2.事务提交后累加小时桶与总榜，遗漏的增量由排行榜按数据库定时校正
+        CacheOutboxPublisher.afterCommit(() -> {
+            for (Shop shop : queryShops(new ArrayList<>(sold.keySet()))) {
+                long delta = sold.get(shop.getId());
+                shopLeaderboard.recordSold(shop.getTypeId(), shop.getId(), delta);
+                //按字段缓存时原地累加，整体缓存时等待过期
+                if(isHashMode()){
+                    cacheClient.incrementHashField(CACHE_SHOP_HASH_KEY + shop.getId(), "sold", delta);
+                }
+            }
+        });
+    }
+
+    /**
+     * 根据类型查询店铺，传入坐标时按距离由近到远分页
+     * @param typeId
+     * @param current 页码
+     * @param x 经度
+     * @param y 纬度
+     * @return
+     */
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        //1.不需要按距离查询，直接分页查询数据库
+        if (x == null || y == null) {
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        //2.计算分页参数
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        //3.查询半径内距离最近的前end个店铺
+        List<ShopGeoIndex.Hit> hits = shopGeoClient.search(typeId.longValue(), x, y, geoRadiusMeters, end, null);
+        if (hits.size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+        //4.截取当前页，查询店铺并填充距离
+        return Result.ok(loadShops(hits.subList(from, hits.size())));
+    }
+
+    /**
+     * 按距离由近到远滚动查询附近店铺
+     * @param typeId
+     * @param x 经度
+     * @param y 纬度
+     * @param radiusMeters 搜索半径，为null时使用默认半径，不大于0时不限制半径
+     * @param cursor 上一页返回的游标，第一页为空
+     * @return
+     */
+    @Override
+    public Result queryShopNearby(Integer typeId, Double x, Double y, Double radiusMeters, String cursor) {
+        //1.从游标之后查询一页
+        ShopGeoIndex.Hit after = ShopGeoClient.decodeCursor(cursor);
+        double radius = radiusMeters != null ? radiusMeters : geoRadiusMeters;
+        List<ShopGeoIndex.Hit> hits = shopGeoClient.search(typeId.longValue(), x, y, radius,
+                SystemConstants.DEFAULT_PAGE_SIZE, after);
+        //2.查询店铺并填充距离，不足一页时没有更多数据
+        ScrollResult r = new ScrollResult();
+        r.setList(loadShops(hits));
+        if (hits.size() == SystemConstants.DEFAULT_PAGE_SIZE) {
+            r.setCursor(ShopGeoClient.encodeCursor(hits.get(hits.size() - 1)));
+        }
+        return Result.ok(r);
+    }
+
+    /**
+     * 一次查询多个店铺，按查询结果的顺序排列并填充距离
+     * @param hits
+     * @return
+     */
+    private List<Shop> loadShops(List<ShopGeoIndex.Hit> hits) {
+        Map<Long, Shop> shops = listByIdsAsMap(hits.stream().map(ShopGeoIndex.Hit::getId).collect(Collectors.toList()));
+        List<Shop> list = new ArrayList<>(hits.size());
+        for (ShopGeoIndex.Hit hit : hits) {
+            Shop shop = shops.get(hit.getId());
+            if (shop != null) {
+                shop.setDistance(hit.getDistance());
+                list.add(shop);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 按排序字段从大到小滚动查询某个类型的店铺
+     * @param typeId
+     * @param sortBy sold、score或comments
+     * @param cursor 上一页返回的游标，第一页为空
+     * @return
+     */
+    @Override
+    public Result scrollShopByType(Integer typeId, String sortBy, String cursor) {
+        //1.从有序集合中取出一页店铺id
+        ShopListClient.Slice slice = shopListClient.scroll(typeId.longValue(), sortBy, cursor, SystemConstants.DEFAULT_PAGE_SIZE);
+        //2.批量查询店铺
+        ScrollResult r = new ScrollResult();
+        r.setList(queryShops(slice.getIds()));
+        r.setCursor(slice.getCursor());
+        return Result.ok(r);
+    }
+
+    /**
+     * 批量查询店铺，整体缓存时一次MGET，未命中的一次查询数据库
+     * 返回的对象可能来自本地缓存，不能修改
+     * @param ids
+     * @return 按id的顺序排列
+     */
+    private List<Shop> queryShops(List<Long> ids) {
+        return isHashMode()
+                ? listInOrder(ids)
+                : cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class, this::listByIdsAsMap, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 查询排行榜的前n名
+     * @param field sold、score或comments
+     * @param typeId 为null时查询全站
+     * @param window all、day或week
+     * @param n 名次数量
+     * @return
+     */
+    @Override
+    public Result queryShopRank(String field, Long typeId, String window, Integer n) {
+        //1.查询榜单
+        if (n == null || n < 1 || n > MAX_RANK_SIZE) {
+            return Result.fail("名次数量需在1到" + MAX_RANK_SIZE + "之间！");
+        }
+        List<ShopLeaderboard.Entry> entries = shopLeaderboard.top(field, typeId, window, n);
+        //2.批量查询店铺
+        Map<Long, Shop> shops = queryShops(entries.stream().map(ShopLeaderboard.Entry::getShopId).collect(Collectors.toList()))
+                .stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+        List<ShopRankDTO> list = new ArrayList<>(entries.size());
+        for (ShopLeaderboard.Entry entry : entries) {
+            list.add(new ShopRankDTO(entry.getRank(), entry.getValue(), shops.get(entry.getShopId())));
+        }
+        return Result.ok(list);
+    }
+
+    /**
+     * 查询店铺在排行榜中的名次
+     * @param id 店铺id
+     * @param field sold、score或comments
+     * @param typeId 为null时查询全站
+     * @param window all、day或week
+     * @return 不在榜上时没有数据
+     */
+    @Override
+    public Result queryRankOfShop(Long id, String field, Long typeId, String window) {
+        ShopLeaderboard.Entry entry = shopLeaderboard.rank(field, typeId, window, id);
+        if (entry == null) {
+            return Result.ok();
+        }
+        return Result.ok(new ShopRankDTO(entry.getRank(), entry.getValue(), null));
+    }
+
+    /**
+     * 从数据库加载各类型的店铺列表，已加载时跳过
+     * @return 写入的店铺数量
+     */
+    @Override
+    public int loadShopList() {
+        return shopListClient.rebuild();
+    }
+
+    /**
+     * 一次查询多个店铺，按id的顺序排列
+     * @param ids
+     * @return
+     */
+    private List<Shop> listInOrder(List<Long> ids) {
+        Map<Long, Shop> shops = listByIdsAsMap(ids);
+        return ids.stream().map(shops::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    private Map<Long, Shop> listByIdsAsMap(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+    }
+
+    /**
+     * 根据名称或商圈关键字分页查询店铺，关键字为空时按id分页
+     * @param name 关键字
+     * @param current 页码
+     * @return
+     */
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        //1.没有关键字，直接分页查询数据库
+        if (StrUtil.isBlank(name)) {
+            Page<Shop> page = query().page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        //2.从倒排索引中取出前end个，截取当前页
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        int end = current * SystemConstants.MAX_PAGE_SIZE;
+        List<ShopNameIndex.Hit> hits = shopNameIndex.search(name, end, null);
+        if (hits.size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = hits.subList(from, hits.size()).stream().map(ShopNameIndex.Hit::getId).collect(Collectors.toList());
+        return Result.ok(listInOrder(ids));
+    }
+
+    /**
+     * 根据名称或商圈关键字滚动查询店铺
+     * @param name 关键字
+     * @param cursor 上一页返回的游标，第一页为空
+     * @return
+     */
+    @Override
+    public Result searchShopByName(String name, String cursor) {
+        //1.从游标之后查询一页
+        List<ShopNameIndex.Hit> hits = shopNameIndex.search(name, SystemConstants.MAX_PAGE_SIZE, ShopNameIndex.decodeCursor(cursor));
+        //2.查询店铺，不足一页时没有更多数据
+        ScrollResult r = new ScrollResult();
+        r.setList(listInOrder(hits.stream().map(ShopNameIndex.Hit::getId).collect(Collectors.toList())));
+        if (hits.size() == SystemConstants.MAX_PAGE_SIZE) {
+            r.setCursor(ShopNameIndex.encodeCursor(hits.get(hits.size() - 1)));
+        }
+        return Result.ok(r);
+    }
+
+    /**
+     * 从数据库重建附近店铺的索引，可重复执行
+     * @return 写入的店铺数量
+     */
+    @Override
+    public int loadShopGeo() {
+        return shopGeoClient.rebuild();
+    }
 }
@@ -1,19 +1,33 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheOutboxPublisher;
 import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.DigestUtils;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -23,30 +37,168 @@ import java.util.List;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //定时核对版本号的间隔，防止漏收广播
+    @Value("${hmdp.cache.shop-type.check-interval-seconds:30}")
+    private long checkIntervalSeconds;
+
+    //类型列表的只读快照，类型变化时整体替换
+    private volatile Snapshot snapshot;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    private void init(){
+        //订阅其他节点的版本号变化
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> onVersion(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.CACHE_SHOPLIST_CHANNEL)
+        );
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "shop-type-version");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkVersion, checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy(){
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 查询类型列表，直接返回本地快照，不访问Redis
+     * @return
+     */
     @Override
     public Result queryTypeList() {
-        //1.从Redis中查询缓存
-        String typeList = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOPLIST_KEY);
-        //2.判断是否存在
-        if(StrUtil.isNotBlank(typeList)){
-            //3.存在,转换为List后返回
-            List<ShopType> shopTypes = JSONUtil.toList(typeList, ShopType.class);
-            return Result.ok(shopTypes);
-        }
-        //4.不存在，从数据库中查询
-        List<ShopType> shopTypes = query().orderByAsc("sort").list();
-        //5.数据库中不存在，返回错误
-        if(shopTypes == null){
-            return Result.fail("分类不存在");
-        }
-        //6.存在，将数据放入Redis缓存
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOPLIST_KEY, JSONUtil.toJsonStr(shopTypes));
-        return Result.ok(shopTypes);
+        return Result.ok(snapshot().types);
+    }
+
+    /**
+     * 类型列表内容的ETag，内容不变时不随版本号或重启变化
+     * @return
+     */
+    @Override
+    public String getTypeListETag() {
+        return snapshot().etag;
+    }
+
+    @Override
+    @Transactional
+    public Result saveType(ShopType shopType) {
+        if (!save(shopType)) {
+            return Result.fail("新增类型失败！");
+        }
+        CacheOutboxPublisher.afterCommit(this::refreshTypeList);
+        return Result.ok(shopType.getId());
+    }
+
+    @Override
+    @Transactional
+    public Result updateType(ShopType shopType) {
+        if (shopType.getId() == null) {
+            return Result.fail("类型id不能为空！");
+        }
+        //类型不存在时不刷新列表
+        if (!updateById(shopType)) {
+            return Result.fail("类型不存在！");
+        }
+        CacheOutboxPublisher.afterCommit(this::refreshTypeList);
+        return Result.ok();
+    }
+
+    /**
+     * 删除Redis中的类型列表并增加版本号，广播后各节点重新加载快照
+     */
+    @Override
+    public void refreshTypeList() {
+        stringRedisTemplate.delete(RedisConstants.CACHE_SHOPLIST_KEY);
+        Long version = stringRedisTemplate.opsForValue().increment(RedisConstants.CACHE_SHOPLIST_VERSION_KEY);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_SHOPLIST_CHANNEL, String.valueOf(version));
+    }
+
+    private Snapshot snapshot(){
+        Snapshot current = snapshot;
+        return current != null ? current : reload();
+    }
+
+    /**
+     * 先读版本号再读列表，列表不会比版本号旧；读取期间版本号变化时会再次收到广播
+     * Redis中的列表带有写入时的版本号，比当前版本号旧的列表（其他节点在DEL+INCR之前读出、之后写入）视为不存在
+     */
+    private synchronized Snapshot reload(){
+        //1.查询版本号
+        String versionStr = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOPLIST_VERSION_KEY);
+        long version = StrUtil.isBlank(versionStr) ? 0L : Long.parseLong(versionStr);
+        //2.从Redis中查询类型列表，校验版本号
+        String typeList = null;
+        String cached = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOPLIST_KEY);
+        //旧格式（不带版本号的数组）同样视为过时
+        if(StrUtil.isNotBlank(cached) && StrUtil.startWith(cached, "{")){
+            JSONObject json = JSONUtil.parseObj(cached);
+            Long cachedVersion = json.getLong("version");
+            if(cachedVersion != null && cachedVersion >= version){
+                typeList = json.getStr("types");
+            }
+        }
+        if(typeList == null){
+            //3.不存在或已过时，从数据库中查询并连同版本号写入Redis
+            List<ShopType> shopTypes = query().orderByAsc("sort").list();
+            typeList = JSONUtil.toJsonStr(shopTypes);
+            JSONObject json = new JSONObject();
+            json.set("version", version);
+            json.set("types", typeList);
+            stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOPLIST_KEY, json.toString(),
+                    RedisConstants.CACHE_SHOPLIST_TTL, TimeUnit.MINUTES);
+        }
+        //4.生成快照
+        Snapshot fresh = new Snapshot(version,
+                Collections.unmodifiableList(JSONUtil.toList(typeList, ShopType.class)),
+                "\"" + DigestUtils.md5DigestAsHex(typeList.getBytes(StandardCharsets.UTF_8)) + "\"");
+        snapshot = fresh;
+        return fresh;
+    }
+
+    private void onVersion(String message){
+        try {
+            Snapshot current = snapshot;
+            if(current == null || current.version != Long.parseLong(message)){
+                reload();
+            }
+        } catch (Exception e) {
+            log.error("重新加载店铺类型失败", e);
+        }
+    }
+
+    private void checkVersion(){
+        try {
+            String version = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOPLIST_VERSION_KEY);
+            onVersion(StrUtil.isBlank(version) ? "0" : version);
+        } catch (Exception e) {
+            log.error("核对店铺类型版本号失败", e);
+        }
+    }
+
+    private static class Snapshot {
+        private final long version;
+        private final List<ShopType> types;
+        private final String etag;
+
+        private Snapshot(long version, List<ShopType> types, String etag) {
+            this.version = version;
+            this.types = types;
+            this.etag = etag;
+        }
     }
 }
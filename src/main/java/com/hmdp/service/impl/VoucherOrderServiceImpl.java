@@ -1,36 +1,49 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillStockClient;
 import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -50,87 +63,388 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedisIdWorker redisIdWorker;
 
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private IShopService shopService;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private RedissonClient redissonClient;
 
-    //获取事务代理对象
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    //每次从消息队列读取的最大订单数
+    @Value("${hmdp.order.stream.batch-size:100}")
+    private int batchSize;
+
+    //消息队列为空时阻塞等待的时间
+    @Value("${hmdp.order.stream.block-millis:2000}")
+    private long blockMillis;
+
+    //本节点的消费者线程数
+    @Value("${hmdp.order.stream.consumers:1}")
+    private int consumers;
+
+    //本节点消费者名称的前缀，为空时使用进程号@主机名
+    @Value("${hmdp.order.stream.consumer-prefix:}")
+    private String consumerPrefix;
+
+    //消息超过该时间未确认时，由其他消费者认领
+    @Value("${hmdp.order.stream.claim-min-idle-seconds:60}")
+    private long claimMinIdleSeconds;
+
+    //认领空闲消息的间隔
+    @Value("${hmdp.order.stream.claim-interval-seconds:30}")
+    private long claimIntervalSeconds;
+
+    //订单消息队列的初始分区数量，之后通过调整接口修改
+    @Value("${hmdp.order.stream.partitions:1}")
+    private int partitions;
+
+    //等待分区排空的最长时间
+    @Value("${hmdp.order.stream.resize-timeout-seconds:60}")
+    private long resizeTimeoutSeconds;
+
+    //读取分区数量的间隔
+    private static final long PARTITION_REFRESH_MILLIS = 5000;
+
+    //负责多个分区时每个分区的阻塞时间
+    private static final long MULTI_PARTITION_BLOCK_MILLIS = 50;
+
+    //当前的分区数量
+    private volatile int orderPartitions;
+
+    //分区数量调整中，暂停下单
+    private volatile boolean orderResizing;
+
+    //定时读取分区数量与调整状态，下单时作为参数传给脚本
+    private ScheduledExecutorService partitionRefresher;
+
+    //在后台执行分区调整，同一节点的任务依次执行
+    private ExecutorService partitionResizer;
+
+    //事务代理对象，启动时处理积压订单也需要使用，延迟注入自身避免循环依赖
+    @Resource
+    @Lazy
     private IVoucherOrderService proxy;
 
-    //判断秒杀资格的脚本
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    //认领空闲消息的脚本
+    private static final DefaultRedisScript<List> AUTOCLAIM_SCRIPT;
 
     //阻塞队列
     private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
 
     //线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private ExecutorService seckillOrderExecutor;
 
     static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setResultType(Long.class);
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        AUTOCLAIM_SCRIPT = new DefaultRedisScript<>();
+        AUTOCLAIM_SCRIPT.setResultType(List.class);
+        AUTOCLAIM_SCRIPT.setLocation(new ClassPathResource("autoclaim.lua"));
     }
 
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        //1.首次启动时按配置写入分区数量，之后只能通过调整接口修改
+        stringRedisTemplate.opsForValue().setIfAbsent(ORDER_PARTITIONS_KEY, String.valueOf(partitions));
+        refreshPartitions();
+        for (int i = 0; i < orderPartitions; i++) {
+            createGroup(partitionKey(i));
+        }
+        partitionRefresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "seckill-partitions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        partitionRefresher.scheduleWithFixedDelay(() -> {
+            try {
+                refreshPartitions();
+            } catch (Exception e) {
+                log.error("读取订单消息队列分区数量失败", e);
+            }
+        }, PARTITION_REFRESH_MILLIS, PARTITION_REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+        partitionResizer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "seckill-partitions-resize");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //2.每个节点、每个线程使用不同的消费者名称，消息在所有消费者之间分摊
+        String prefix = StrUtil.isBlank(consumerPrefix) ? ManagementFactory.getRuntimeMXBean().getName() : consumerPrefix;
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumers, new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "seckill-order-" + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < consumers; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(prefix + "-" + i, i));
+        }
+    }
+
+    @PreDestroy
+    private void destroy(){
+        seckillOrderExecutor.shutdownNow();
+        partitionRefresher.shutdownNow();
+        partitionResizer.shutdownNow();
+    }
+
+    /**
+     * 分区对应的消息队列，分区0沿用原来的stream.orders
+     */
+    private static String partitionKey(int partition) {
+        return partition == 0 ? ORDER_STREAM_KEY : ORDER_STREAM_KEY + ":" + partition;
+    }
+
+    /**
+     * 一次读取分区数量与调整标记，看到调整结束时一定也看到新的分区数量
+     */
+    private void refreshPartitions() {
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(Arrays.asList(ORDER_PARTITIONS_KEY, ORDER_RESIZING_KEY));
+        String value = values == null ? null : values.get(0);
+        orderPartitions = StrUtil.isBlank(value) ? partitions : Integer.parseInt(value);
+        orderResizing = values != null && values.get(1) != null;
+    }
+
+    /**
+     * 创建消费者组，消息队列不存在时一并创建，已存在时忽略
+     */
+    private void createGroup(String key) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(key.getBytes(StandardCharsets.UTF_8), "g1", ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 分区已排空：消费者组已读取全部消息，且没有未确认的消息
+     */
+    private boolean isDrained(String key) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return true;
+        }
+        String lastId = stringRedisTemplate.opsForStream().info(key).lastGeneratedId();
+        return stringRedisTemplate.opsForStream().groups(key).stream()
+                .allMatch(group -> group.pendingCount() == 0 && lastId.equals(group.lastDeliveredId()));
+    }
+
+    /**
+     * 提交调整订单消息队列分区数量的任务，在后台执行，不阻塞请求线程
+     * @param count 新的分区数量
+     * @return 任务id，通过queryResizeJob查询进度
+     */
+    @Override
+    public Result resizeOrderPartitions(int count) {
+        if (count < 1) {
+            return Result.fail("分区数量至少为1！");
+        }
+        if (redissonClient.getLock(LOCK_ORDER_PARTITIONS_KEY).isLocked()) {
+            return Result.fail("分区正在调整中！");
+        }
+        String jobId = UUID.randomUUID().toString();
+        updateResizeJob(jobId, "pending", "等待执行", count);
+        partitionResizer.execute(() -> runResizeJob(jobId, count));
+        return Result.ok(jobId);
+    }
+
+    /**
+     * 查询分区调整任务的状态，任务信息保存在Redis中，任意节点都可以查询
+     * @param jobId
+     * @return state为pending、running、succeeded或failed
+     */
+    @Override
+    public Result queryResizeJob(String jobId) {
+        Map<Object, Object> job = stringRedisTemplate.opsForHash().entries(ORDER_RESIZE_JOB_KEY + jobId);
+        if (job.isEmpty()) {
+            return Result.fail("任务不存在！");
+        }
+        return Result.ok(job);
+    }
+
+    private void updateResizeJob(String jobId, String state, String message, int count) {
+        String key = ORDER_RESIZE_JOB_KEY + jobId;
+        Map<String, String> job = new HashMap<>();
+        job.put("state", state);
+        job.put("message", message);
+        job.put("count", String.valueOf(count));
+        job.put("updateTime", LocalDateTime.now().toString());
+        stringRedisTemplate.opsForHash().putAll(key, job);
+        stringRedisTemplate.expire(key, ORDER_RESIZE_JOB_TTL, TimeUnit.HOURS);
+    }
+
+    private void runResizeJob(String jobId, int count) {
+        try {
+            Result result = doResize(jobId, count);
+            if (Boolean.TRUE.equals(result.getSuccess())) {
+                updateResizeJob(jobId, "succeeded", "分区数量为" + result.getData(), count);
+            } else {
+                updateResizeJob(jobId, "failed", result.getErrorMsg(), count);
+            }
+        } catch (Exception e) {
+            log.error("调整订单消息队列分区失败", e);
+            updateResizeJob(jobId, "failed", String.valueOf(e.getMessage()), count);
+        }
+    }
+
+    /**
+     * 调整订单消息队列的分区数量
+     * 先暂停下单，等待所有分区的消息处理完毕后切换，避免同一优惠券的订单分散在新旧分区中
+     * 各节点每隔PARTITION_REFRESH_MILLIS读取一次分区数量与调整标记，标记写入后与切换后都等待各节点读取
+     */
+    private Result doResize(String jobId, int count) {
+        RLock lock = redissonClient.getLock(LOCK_ORDER_PARTITIONS_KEY);
+        if (!lock.tryLock()) {
+            return Result.fail("分区正在调整中！");
+        }
+        try {
+            refreshPartitions();
+            int current = orderPartitions;
+            if (count == current) {
+                return Result.ok(current);
+            }
+            updateResizeJob(jobId, "running", "正在排空" + current + "个分区", count);
+            //1.暂停下单，标记带过期时间，节点宕机时自动恢复
+            stringRedisTemplate.opsForValue().set(ORDER_RESIZING_KEY, String.valueOf(count),
+                    resizeTimeoutSeconds * 2, TimeUnit.SECONDS);
+            orderResizing = true;
+            try {
+                //2.等待各节点停止写入后，等待现有分区排空
+                Thread.sleep(PARTITION_REFRESH_MILLIS * 2);
+                long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(resizeTimeoutSeconds);
+                for (int i = 0; i < current; i++) {
+                    while (!isDrained(partitionKey(i))) {
+                        if (System.currentTimeMillis() > deadline) {
+                            return Result.fail("等待订单处理超时，分区数量未修改！");
+                        }
+                        Thread.sleep(100);
+                    }
+                }
+                //3.创建新分区的消费者组后切换，各节点定时读取新的分区数量
+                for (int i = current; i < count; i++) {
+                    createGroup(partitionKey(i));
+                }
+                stringRedisTemplate.opsForValue().set(ORDER_PARTITIONS_KEY, String.valueOf(count));
+                orderPartitions = count;
+                //4.等待各节点读取新的分区数量后再恢复下单
+                Thread.sleep(PARTITION_REFRESH_MILLIS * 2);
+                log.info("订单消息队列分区数量由{}调整为{}", current, count);
+                return Result.ok(count);
+            } finally {
+                stringRedisTemplate.delete(ORDER_RESIZING_KEY);
+                orderResizing = false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.fail("分区调整被中断！");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 读取一个分区，单个StreamOffset的可变参数会创建泛型数组，在此处集中抑制警告
+     */
+    @SuppressWarnings("unchecked")
+    private List<MapRecord<String, Object, Object>> readPartition(String consumerName, StreamReadOptions options,
+                                                                  StreamOffset<String> offset) {
+        return stringRedisTemplate.opsForStream().read(Consumer.from("g1", consumerName), options, offset);
     }
 
     private class VoucherOrderHandler implements Runnable {
-        String queueName = "stream.orders";
+        //消费者名称
+        private final String consumerName;
+        //消费者在本节点中的序号，用于分配分区
+        private final int index;
+        //上次认领空闲消息的时间
+        private long lastClaimTime;
+        private VoucherOrderHandler(String consumerName, int index) {
+            this.consumerName = consumerName;
+            this.index = index;
+        }
+
+        /**
+         * 当前线程负责的分区：线程数不少于分区数时每个线程负责一个分区，否则按序号取模分配
+         */
+        private List<String> ownedPartitions() {
+            int n = orderPartitions;
+            List<String> keys = new ArrayList<>();
+            if (consumers >= n) {
+                keys.add(partitionKey(index % n));
+            } else {
+                for (int p = index; p < n; p += consumers) {
+                    keys.add(partitionKey(p));
+                }
+            }
+            return keys;
+        }
+
         @Override
         public void run() {
-            while (true){
+            while (!Thread.currentThread().isInterrupted()){
+                List<String> queueNames = Collections.emptyList();
                 try {
-                    //1.获取消息队列中的订单信息  XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.order >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
-                    //2.判断消息获取是否成功
-                    if( list == null || list.isEmpty() ){
-                        continue;
+                    long now = System.currentTimeMillis();
+                    queueNames = ownedPartitions();
+                    //0.定时认领其他消费者长时间未确认的消息
+                    if (now - lastClaimTime >= TimeUnit.SECONDS.toMillis(claimIntervalSeconds)) {
+                        lastClaimTime = now;
+                        for (String queueName : queueNames) {
+                            if (claimIdleMessages(queueName) > 0) {
+                                handlePendingList(queueName);
+                            }
+                        }
+                    }
+                    //负责多个分区时缩短阻塞时间，轮流读取
+                    long block = queueNames.size() == 1 ? blockMillis : MULTI_PARTITION_BLOCK_MILLIS;
+                    for (String queueName : queueNames) {
+                        //1.获取消息队列中的订单信息  XREADGROUP GROUP g1 consumer COUNT n BLOCK 2000 STREAMS stream.order >
+                        List<MapRecord<String, Object, Object>> list = readPartition(
+                                consumerName,
+                                StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(block)),
+                                StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                        );
+                        //2.判断消息获取是否成功
+                        if( list == null || list.isEmpty() ){
+                            continue;
+                        }
+                        //3.批量下单并确认
+                        handleRecords(queueName, list);
                     }
-                    //3.解析消息中的订单信息
-                    MapRecord<String, Object, Object> orders = list.get(0);
-                    Map<Object, Object> values = orders.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    //4.如果获取成功，可以下单
-                    handleVoucherOrder(voucherOrder);
-                    //5.ACK确认 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", orders.getId());
                 } catch (Exception e) {
                     log.error("订单处理异常", e);
-                    handlePendingList();
+                    for (String queueName : queueNames) {
+                        handlePendingList(queueName);
+                    }
                 }
             }
         }
 
-        private void handlePendingList() {
+        private void handlePendingList(String queueName) {
             while (true){
                 try {
-                    //1.获取Pending-List中的订单信息  XREADGROUP GROUP g1 c1 COUNT 1 STREAMS stream.order >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
+                    //1.获取Pending-List中的订单信息  XREADGROUP GROUP g1 consumer COUNT n STREAMS stream.order 0
+                    List<MapRecord<String, Object, Object>> list = readPartition(
+                            consumerName,
+                            StreamReadOptions.empty().count(batchSize),
                             StreamOffset.create(queueName, ReadOffset.from("0"))
                     );
                     //2.判断消息获取是否成功
                     if( list == null || list.isEmpty() ){
                         break;
                     }
-                    //3.解析消息中的订单信息
-                    MapRecord<String, Object, Object> orders = list.get(0);
-                    Map<Object, Object> values = orders.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    //4.如果获取成功，可以下单
-                    handleVoucherOrder(voucherOrder);
-                    //5.ACK确认 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", orders.getId());
+                    //3.批量下单并确认
+                    handleRecords(queueName, list);
                 } catch (Exception e) {
                     log.error("Pending-List处理异常", e);
                     try {
@@ -141,6 +455,64 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 }
             }
         }
+
+        /**
+         * 用XAUTOCLAIM把空闲超时的消息转到当前消费者的Pending-List，
+         * 并删除没有未确认消息且长时间空闲的消费者（已下线的节点）
+         * @return 认领的消息数量
+         */
+        private int claimIdleMessages(String queueName) {
+            long minIdle = TimeUnit.SECONDS.toMillis(claimMinIdleSeconds);
+            int claimed = 0;
+            String start = "0-0";
+            do {
+                List<?> result = stringRedisTemplate.execute(AUTOCLAIM_SCRIPT, Collections.singletonList(queueName),
+                        "g1", consumerName, String.valueOf(minIdle), start, String.valueOf(batchSize));
+                start = result.get(0).toString();
+                claimed += Integer.parseInt(result.get(1).toString());
+            } while (!"0-0".equals(start));
+            if (claimed > 0) {
+                log.info("消费者{}认领空闲订单消息{}条", consumerName, claimed);
+            }
+            stringRedisTemplate.opsForStream().consumers(queueName, "g1").stream()
+                    .filter(consumer -> consumer.pendingCount() == 0 && consumer.idleTimeMs() > minIdle
+                            && !consumer.consumerName().equals(consumerName))
+                    .forEach(consumer -> stringRedisTemplate.opsForStream()
+                            .deleteConsumer(queueName, Consumer.from("g1", consumer.consumerName())));
+            return claimed;
+        }
+
+        /**
+         * 一批消息在一个事务中下单，成功后一次XACK全部确认；
+         * 失败时逐条下单并确认，出错的消息留在Pending-List中
+         */
+        private void handleRecords(String queueName, List<MapRecord<String, Object, Object>> records) {
+            //1.解析消息中的订单信息
+            List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+            RecordId[] ids = new RecordId[records.size()];
+            for (int i = 0; i < records.size(); i++) {
+                MapRecord<String, Object, Object> record = records.get(i);
+                voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+                ids[i] = record.getId();
+            }
+            //2.批量下单，ACK确认 XACK stream.orders:n g1 id1 id2 ...
+            try {
+                proxy.createVoucherOrders(voucherOrders);
+                stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", ids);
+                return;
+            } catch (Exception e) {
+                log.warn("批量下单失败，逐条处理，数量：{}", records.size(), e);
+            }
+            //3.逐条下单，唯一索引冲突说明订单已被其他消费者写入，直接确认
+            for (int i = 0; i < records.size(); i++) {
+                try {
+                    handleVoucherOrder(voucherOrders.get(i));
+                } catch (DuplicateKeyException e) {
+                    log.error("不能重复购买！订单：{}", voucherOrders.get(i).getId());
+                }
+                stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", ids[i]);
+            }
+        }
     }
 
     private void handleVoucherOrder(VoucherOrder voucherOrder) {
@@ -150,24 +522,54 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     @Override
     public Result seckillVoucher(Long voucherId) {
+        //0.本节点已标记售罄时直接返回，不再生成订单id和执行脚本
+        if (seckillStockClient.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        //0.1.分区调整中，暂停下单
+        if (orderResizing) {
+            return Result.fail("系统繁忙，请稍后重试");
+        }
         //获取用户id
         Long userId = UserHolder.getUser().getId();
-        //创建订单id
-        long orderId = redisIdWorker.nextId("order");
-        //1.执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
-        );
+        //1.执行lua脚本，扣减库存并记录一人一单
+        SeckillStockClient.Reservation reservation = seckillStockClient.reserve(voucherId, userId);
+        if(reservation.getCode() == 4){
+            //1.1.本地缓存的库存段数已过期，刷新后重试
+            seckillStockClient.evictSegments(voucherId);
+            reservation = seckillStockClient.reserve(voucherId, userId);
+        }
         //2.判断结果是否为0
-        int r = result.intValue();
+        int r = reservation.getCode();
+        if(r == 1){
+            //2.1.库存不足，按扣减前已知的库存代数通知所有节点标记售罄
+            seckillStockClient.markSoldOut(voucherId, reservation.getGeneration());
+            return Result.fail("库存不足");
+        }
+        if(r == 4){
+            //2.2.刷新后库存仍不存在
+            return Result.fail("库存不足");
+        }
         if(r != 0){
-            //2.1.不为0，代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            //2.3.不为0，代表没有购买资格
+            return Result.fail("不能重复下单");
+        }
+        //3.创建订单id，按优惠券id选择分区发送订单消息  XADD stream.orders:n * k1 v1 k2 v2 ...
+        //分区由多个优惠券共用，单独写入，不与库存、订单key放在同一个脚本中
+        long orderId = redisIdWorker.nextId("order");
+        String streamKey = partitionKey((int) (voucherId % orderPartitions));
+        Map<String, String> message = new HashMap<>();
+        message.put("userId", userId.toString());
+        message.put("voucherId", voucherId.toString());
+        message.put("id", String.valueOf(orderId));
+        try {
+            stringRedisTemplate.opsForStream().add(StreamRecords.string(message).withStreamKey(streamKey));
+        } catch (Exception e) {
+            //3.1.发送失败时归还库存与下单资格
+            log.error("发送订单消息失败，优惠券：{}，用户：{}", voucherId, userId, e);
+            seckillStockClient.release(voucherId, userId, reservation);
+            return Result.fail("系统繁忙，请稍后重试");
         }
-        //3.获取代理对象，方便后续调用事务方法
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
         //4.返回订单id
         return Result.ok(orderId);
     }
@@ -195,5 +597,57 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
         //7.保存订单至数据库
         save(voucherOrder);
+        //8.在同一事务中累加店铺销量，提交后写入排行榜
+        Voucher voucher = voucherService.getById(voucherOrder.getVoucherId());
+        if (voucher != null) {
+            shopService.recordSold(Collections.singletonMap(voucher.getShopId(), 1L));
+        }
+    }
+
+    /**
+     * 批量创建订单：每个优惠券按订单数扣减一次库存，所有订单一条INSERT写入
+     * 任一优惠券库存不足时整体回滚，由调用方逐条处理
+     * @param voucherOrders
+     */
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        //1.一人一单：去掉批内重复与数据库中已存在的订单（重复投递的消息）
+        Set<Long> userIds = voucherOrders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> voucherIds = voucherOrders.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        Set<String> bought = query().select("user_id", "voucher_id")
+                .in("user_id", userIds).in("voucher_id", voucherIds).list()
+                .stream().map(o -> o.getUserId() + ":" + o.getVoucherId()).collect(Collectors.toSet());
+        List<VoucherOrder> orders = new ArrayList<>(voucherOrders.size());
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            if (bought.add(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId())) {
+                orders.add(voucherOrder);
+            } else {
+                log.error("不能重复购买！");
+            }
+        }
+        if (orders.isEmpty()) {
+            return;
+        }
+        //2.按优惠券汇总扣减库存
+        Map<Long, Long> counts = orders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        counts.forEach((voucherId, n) -> {
+            boolean success = seckillVoucherService
+                    .update().setSql("stock = stock - " + n)   //set stock = stock - n
+                    .eq("voucher_id", voucherId).ge("stock", n)  //where id = ? and stock >= n
+                    .update();
+            if (!success) {
+                throw new IllegalStateException("库存不足，优惠券：" + voucherId);
+            }
+        });
+        //3.保存订单至数据库
+        getBaseMapper().insertBatch(orders);
+        //4.按店铺汇总销量，在同一事务中累加，提交后写入排行榜
+        Map<Long, Long> sold = new HashMap<>();
+        for (Voucher voucher : voucherService.listByIds(counts.keySet())) {
+            sold.merge(voucher.getShopId(), counts.get(voucher.getId()), Long::sum);
+        }
+        shopService.recordSold(sold);
     }
-}
\ No newline at end of file
+}
@@ -7,7 +7,9 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheOutboxPublisher;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillStockClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
@@ -16,8 +18,6 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
-
 /**
  * <p>
  *  服务实现类
@@ -33,6 +33,8 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillStockClient seckillStockClient;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -42,6 +44,35 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         return Result.ok(vouchers);
     }
 
+    @Override
+    @Transactional
+    public Result replenishSeckillStock(Long voucherId, Integer amount) {
+        if (amount == null || amount <= 0) {
+            return Result.fail("补充数量必须大于0！");
+        }
+        // 增加数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + amount)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在！");
+        }
+        // 事务提交后增加Redis库存，清除各节点的售罄标记
+        CacheOutboxPublisher.afterCommit(() -> seckillStockClient.replenish(voucherId, amount));
+        return Result.ok();
+    }
+
+    @Override
+    public Result querySeckillStock(Long voucherId) {
+        // 合并各段的剩余库存
+        Integer stock = seckillStockClient.remaining(voucherId);
+        if (stock == null) {
+            return Result.fail("秒杀券不存在！");
+        }
+        return Result.ok(stock);
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -54,7 +85,7 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        //保存秒杀库存到Redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        //保存秒杀库存到Redis中，热点秒杀券拆成多段
+        seckillStockClient.init(voucher.getId(), voucher.getStock());
     }
 }
@@ -0,0 +1,168 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于Kryo的紧凑二进制编解码器
+ * 格式：1字节魔数 + 4字节类结构指纹 + [逻辑过期时间，8字节毫秒时间戳 + 重建耗时，4字节毫秒数] + Kryo数据
+ * 实体类字段变化后指纹不一致，旧数据视为未命中，由调用方重建
+ * 普通数据与逻辑过期数据可以互相读取：按普通数据读取时忽略过期时间，按逻辑过期读取普通数据时视为已过期
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    //普通数据
+    private static final byte MAGIC_PLAIN = (byte) 0xC1;
+    //带逻辑过期时间的数据（不含重建耗时的旧格式，仅读取）
+    private static final byte MAGIC_EXPIRE = (byte) 0xC2;
+    //带逻辑过期时间与重建耗时的数据
+    private static final byte MAGIC_EXPIRE_COST = (byte) 0xC3;
+
+    private static final int BUFFER_SIZE = 256;
+
+    //魔数与指纹的长度
+    private static final int HEADER_SIZE = 5;
+
+    //普通数据按逻辑过期读取时使用的过期时间，读取后立即重建
+    private static final LocalDateTime EXPIRED = LocalDateTime.ofInstant(Instant.EPOCH, ZoneId.systemDefault());
+
+    //Kryo非线程安全，使用对象池复用
+    private static final Pool<Kryo> KRYO_POOL = new Pool<Kryo>(true, false, 64) {
+        @Override
+        protected Kryo create() {
+            Kryo kryo = new Kryo();
+            kryo.setRegistrationRequired(false);
+            kryo.setReferences(false);
+            return kryo;
+        }
+    };
+
+    private static final Map<Class<?>, Integer> FINGERPRINTS = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean supports(byte[] bytes) {
+        return bytes[0] == MAGIC_PLAIN || bytes[0] == MAGIC_EXPIRE || bytes[0] == MAGIC_EXPIRE_COST;
+    }
+
+    @Override
+    public boolean isCompatible(byte[] bytes, Class<?> clazz) {
+        if (bytes.length < HEADER_SIZE || !supports(bytes)) {
+            return false;
+        }
+        //指纹由Output.writeInt写入，按同样的字节序读取
+        Input input = new Input(bytes, 1, HEADER_SIZE - 1);
+        return input.readInt() == fingerprint(clazz);
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try {
+            Output output = new Output(BUFFER_SIZE, -1);
+            output.writeByte(MAGIC_PLAIN);
+            output.writeInt(fingerprint(value.getClass()));
+            kryo.writeObject(output, value);
+            return output.toBytes();
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> clazz) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try {
+            Input input = new Input(bytes);
+            byte magic = input.readByte();
+            input.readInt();
+            //逻辑过期数据跳过过期时间与重建耗时
+            if (magic == MAGIC_EXPIRE) {
+                input.readLong();
+            } else if (magic == MAGIC_EXPIRE_COST) {
+                input.readLong();
+                input.readInt();
+            }
+            return kryo.readObject(input, clazz);
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    @Override
+    public byte[] encodeWithExpire(RedisData redisData) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try {
+            Output output = new Output(BUFFER_SIZE, -1);
+            output.writeByte(MAGIC_EXPIRE_COST);
+            output.writeInt(fingerprint(redisData.getData().getClass()));
+            output.writeLong(toEpochMilli(redisData.getExpireTime()));
+            Long rebuildCost = redisData.getRebuildCost();
+            output.writeInt(rebuildCost == null ? 0 : (int) Math.min(rebuildCost, Integer.MAX_VALUE));
+            kryo.writeObject(output, redisData.getData());
+            return output.toBytes();
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    @Override
+    public <T> RedisData decodeWithExpire(byte[] bytes, Class<T> clazz) {
+        Kryo kryo = KRYO_POOL.obtain();
+        try {
+            Input input = new Input(bytes);
+            byte magic = input.readByte();
+            input.readInt();
+            RedisData redisData = new RedisData();
+            if (magic == MAGIC_PLAIN) {
+                redisData.setExpireTime(EXPIRED);
+                redisData.setData(kryo.readObject(input, clazz));
+                return redisData;
+            }
+            redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(input.readLong()), ZoneId.systemDefault()));
+            if (magic == MAGIC_EXPIRE_COST) {
+                redisData.setRebuildCost((long) input.readInt());
+            }
+            redisData.setData(kryo.readObject(input, clazz));
+            return redisData;
+        } finally {
+            KRYO_POOL.free(kryo);
+        }
+    }
+
+    /**
+     * 类结构指纹，由所有参与序列化的字段名与类型计算
+     */
+    private static int fingerprint(Class<?> clazz) {
+        return FINGERPRINTS.computeIfAbsent(clazz, c -> {
+            List<String> fields = new ArrayList<>();
+            for (Class<?> type = c; type != null && type != Object.class; type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        fields.add(type.getName() + "." + field.getName() + ":" + field.getType().getName());
+                    }
+                }
+            }
+            Collections.sort(fields);
+            return MurmurHash.hash32(String.join(",", fields));
+        });
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,225 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 布隆过滤器管理，防止缓存穿透
+ * 启动时从数据库加载全部id，新增数据时同步写入Redis bitmap并广播到各节点
+ */
+@Slf4j
+@Component
+public class BloomFilterClient {
+
+    public static final String SHOP = "shop";
+    public static final String BLOG = "blog";
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    //重建期间接收新增的临时key的过期时间，防止重建中断后残留
+    private static final long BUILDING_TTL_SECONDS = 3600L;
+
+    private static final DefaultRedisScript<Long> ADD_SCRIPT;
+    private static final DefaultRedisScript<Long> SWAP_SCRIPT;
+
+    static {
+        ADD_SCRIPT = new DefaultRedisScript<>();
+        ADD_SCRIPT.setResultType(Long.class);
+        ADD_SCRIPT.setLocation(new ClassPathResource("bloom_add.lua"));
+        SWAP_SCRIPT = new DefaultRedisScript<>();
+        SWAP_SCRIPT.setResultType(Long.class);
+        SWAP_SCRIPT.setLocation(new ClassPathResource("bloom_swap.lua"));
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Value("${hmdp.bloom.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+
+    //已完成初始化的过滤器，未初始化的过滤器一律放行
+    private final Map<String, RedisBloomFilter> filters = new ConcurrentHashMap<>();
+    //缓存key前缀与过滤器名称的对应关系
+    private final Map<String, String> keyPrefixes = new ConcurrentHashMap<>();
+    //过滤器数据来源
+    private final Map<String, BaseMapper<?>> sources = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init(){
+        if(!enabled){
+            return;
+        }
+        register(SHOP, shopMapper, CACHE_SHOP_KEY, CACHE_SHOP_HASH_KEY);
+        register(BLOG, blogMapper);
+        //订阅其他节点的新增与重建消息
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(BLOOM_SYNC_CHANNEL)
+        );
+        for (String name : sources.keySet()) {
+            try {
+                rebuild(name);
+            } catch (Exception e) {
+                //初始化失败时不拦截任何请求，可稍后通过接口重建
+                log.error("布隆过滤器{}初始化失败", name, e);
+            }
+        }
+    }
+
+    private void register(String name, BaseMapper<?> mapper, String... keyPrefixes){
+        sources.put(name, mapper);
+        for (String keyPrefix : keyPrefixes) {
+            this.keyPrefixes.put(keyPrefix, name);
+        }
+    }
+
+    /**
+     * 判断id是否可能存在
+     * @param name 过滤器名称
+     * @param id
+     * @return false表示一定不存在
+     */
+    public boolean mightContain(String name, Object id){
+        RedisBloomFilter filter = filters.get(name);
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * 根据缓存key前缀判断id是否可能存在，没有对应过滤器时返回true
+     * @param keyPrefix
+     * @param id
+     * @return
+     */
+    public boolean mightContainByKeyPrefix(String keyPrefix, Object id){
+        String name = keyPrefixes.get(keyPrefix);
+        return name == null || mightContain(name, id);
+    }
+
+    /**
+     * 新增数据后调用，写入内存与Redis bitmap，并通知其他节点
+     * @param name
+     * @param id
+     */
+    public void add(String name, Object id){
+        RedisBloomFilter filter = filters.get(name);
+        if(filter == null){
+            return;
+        }
+        filter.putLocal(id);
+        //其他节点正在重建时，同时写入重建用的临时key
+        String key = BLOOM_FILTER_KEY + name;
+        long[] offsets = filter.offsets(id);
+        Object[] args = new Object[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            args[i] = String.valueOf(offsets[i]);
+        }
+        stringRedisTemplate.execute(ADD_SCRIPT, Arrays.asList(key, key + ":building"), args);
+        stringRedisTemplate.convertAndSend(BLOOM_SYNC_CHANNEL, "add:" + name + ":" + id);
+    }
+
+    /**
+     * 从数据库重建过滤器，并覆盖Redis中的bitmap
+     * 重建期间的新增写入临时key，替换时与新bitmap合并
+     * @param name
+     * @return 过滤器不存在时返回false
+     */
+    public boolean rebuild(String name){
+        BaseMapper<?> mapper = sources.get(name);
+        if(mapper == null){
+            return false;
+        }
+        long begin = System.currentTimeMillis();
+        RedisBloomFilter filter = filters.getOrDefault(name, new RedisBloomFilter(name, expectedInsertions, fpp));
+        //1.创建接收新增的临时key，之后各节点的新增同时写入该key
+        String key = BLOOM_FILTER_KEY + name;
+        String buildingKey = key + ":building";
+        stringRedisTemplate.opsForValue().set(buildingKey, "", BUILDING_TTL_SECONDS, TimeUnit.SECONDS);
+        //2.从数据库构建，期间本节点的新增同时写入新位数组
+        filter.rebuild(sink -> loadIds(mapper, sink));
+        //3.先写入临时key，再与重建期间的新增合并后替换，避免其他节点读到不完整的数据
+        String tmpKey = key + ":tmp";
+        byte[] bytes = filter.toBytes();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.set(tmpKey.getBytes(StandardCharsets.UTF_8), bytes);
+            return null;
+        });
+        stringRedisTemplate.execute(SWAP_SCRIPT, Arrays.asList(key, buildingKey, tmpKey));
+        filters.put(name, filter);
+        stringRedisTemplate.convertAndSend(BLOOM_SYNC_CHANNEL, "reload:" + name);
+        log.info("布隆过滤器{}重建完成，位数：{}，哈希函数个数：{}，耗时：{}ms",
+                name, filter.getNumBits(), filter.getNumHashes(), System.currentTimeMillis() - begin);
+        return true;
+    }
+
+    /**
+     * 按id顺序分批读取全部id
+     */
+    private <T> void loadIds(BaseMapper<T> mapper, Consumer<Object> sink){
+        long lastId = 0;
+        while (true) {
+            List<Object> ids = mapper.selectObjs(new QueryWrapper<T>()
+                    .select("id").gt("id", lastId).orderByAsc("id").last("LIMIT " + LOAD_BATCH_SIZE));
+            if(ids == null || ids.isEmpty()){
+                return;
+            }
+            for (Object id : ids) {
+                sink.accept(id);
+            }
+            lastId = ((Number) ids.get(ids.size() - 1)).longValue();
+        }
+    }
+
+    private void onMessage(String message){
+        //消息格式 add:name:id 或 reload:name
+        List<String> parts = StrUtil.split(message, ':', 3);
+        RedisBloomFilter filter = filters.get(parts.get(1));
+        if(filter == null){
+            return;
+        }
+        if("add".equals(parts.get(0)) && parts.size() == 3){
+            filter.putLocal(parts.get(2));
+        } else if("reload".equals(parts.get(0))){
+            byte[] key = (BLOOM_FILTER_KEY + filter.getName()).getBytes(StandardCharsets.UTF_8);
+            filter.loadBytes(() -> stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(key)));
+        }
+    }
+}
@@ -1,19 +1,38 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.date.LocalDateTimeUtil;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.ReflectUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -24,96 +43,1223 @@ public class CacheClient {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    //缓存数据按字节读写，编解码由cacheSerializer负责
+    @Resource
+    private RedisTemplate<String, byte[]> cacheRedisTemplate;
+
+    @Resource
+    private CacheSerializer cacheSerializer;
+
+    @Resource
+    private LocalCache localCache;
+
+    @Resource
+    private BloomFilterClient bloomFilterClient;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    //异步重建共用的有界线程池
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    //空值，表示数据库中不存在该数据
+    private static final byte[] EMPTY_VALUE = new byte[0];
+
+    //获取互斥锁失败后的重试间隔
+    private static final long LOCK_RETRY_INTERVAL = 50L;
+
+    //哈希结构中的空值标记字段，表示数据库中不存在该数据
+    private static final String HASH_EMPTY_FIELD = "_empty";
+
+    //仅在缓存存在时更新哈希字段
+    private static final DefaultRedisScript<Long> HASH_UPDATE_SCRIPT;
+
+    static {
+        HASH_UPDATE_SCRIPT = new DefaultRedisScript<>();
+        HASH_UPDATE_SCRIPT.setResultType(Long.class);
+        HASH_UPDATE_SCRIPT.setLocation(new ClassPathResource("hash_update.lua"));
+    }
+
+    //同一节点内相同key的缓存重建只执行一次
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    //逻辑过期缓存的刷新策略：expire（过期后刷新）或xfetch（按概率提前刷新）
+    private static final String REFRESH_XFETCH = "xfetch";
+
+    @Value("${hmdp.cache.refresh-strategy:expire}")
+    private String refreshStrategy;
+
+    //XFetch参数，越大越倾向于提前刷新
+    @Value("${hmdp.cache.xfetch-beta:1.0}")
+    private double xfetchBeta;
+
+    //过期时间随机增加的比例，避免同一批写入的key同时过期
+    @Value("${hmdp.cache.ttl-jitter-ratio:0.1}")
+    private double ttlJitterRatio;
+
+    //等待缓存重建的最长时间
+    @Value("${hmdp.cache.rebuild-wait-millis:2000}")
+    private long rebuildWaitMillis;
+
+    //同一个逻辑过期key的最近访问时间，每个节点在该间隔内最多上报一次
+    @Value("${hmdp.cache.refresh-ahead.access-report-seconds:10}")
+    private long accessReportSeconds;
+
+    //本节点在上报间隔内已上报过的key，到期自动清除，占用的内存只与间隔内读取过的key数量有关
+    private TimedCache<String, Boolean> accessReported;
+
+    //按key前缀统计命中、加锁、重建等指标
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    //Redis熔断器名称，数据库熔断器按key前缀命名为db:前缀
+    private static final String REDIS_BREAKER = "redis";
+
+    @Value("${hmdp.cache.breaker.window-size:20}")
+    private int breakerWindowSize;
+
+    @Value("${hmdp.cache.breaker.minimum-calls:10}")
+    private int breakerMinimumCalls;
+
+    @Value("${hmdp.cache.breaker.failure-rate:0.5}")
+    private double breakerFailureRate;
+
+    @Value("${hmdp.cache.breaker.open-millis:5000}")
+    private long breakerOpenMillis;
+
+    //数据库查询超过该耗时计为失败
+    @Value("${hmdp.cache.breaker.db-slow-call-millis:1000}")
+    private long dbSlowCallMillis;
+
+    //每个key前缀同时查询数据库的上限，超过时快速失败
+    @Value("${hmdp.cache.breaker.db-max-concurrency:20}")
+    private int dbMaxConcurrency;
+
+    //Redis异常达到阈值后熔断，熔断期间直接降级
+    private CircuitBreaker redisBreaker;
+
+    private final Map<String, CircuitBreaker> dbBreakers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init(){
+        redisBreaker = new CircuitBreaker(REDIS_BREAKER, breakerWindowSize, breakerMinimumCalls, breakerFailureRate,
+                breakerOpenMillis, 0, 0, e -> e instanceof DataAccessException);
+        cacheMetrics.registerBreaker(redisBreaker);
+        //TimedCache的有效期为0时永不过期，至少为1毫秒
+        long reportMillis = Math.max(1, TimeUnit.SECONDS.toMillis(accessReportSeconds));
+        accessReported = CacheUtil.newTimedCache(reportMillis);
+        accessReported.schedulePrune(reportMillis);
+    }
+
+    @PreDestroy
+    private void destroy(){
+        accessReported.cancelPruneSchedule();
+    }
 
     public void set(String key, Object value, Long Time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), Time, unit);
+        cacheRedisTemplate.opsForValue().set(key, cacheSerializer.encode(value), jitter(Time, unit), TimeUnit.MILLISECONDS);
+        //不再是逻辑过期数据，不需要后台刷新
+        stringRedisTemplate.opsForZSet().remove(CACHE_EXPIRE_INDEX_KEY, key);
+        localCache.evict(key);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long Time, TimeUnit unit) {
+        setWithLogicalExpire(key, value, Time, unit, null);
+    }
+
+    /**
+     * 写入逻辑过期数据，同时记录本次重建耗时
+     * @param key
+     * @param value
+     * @param Time
+     * @param unit
+     * @param rebuildCost 重建耗时（毫秒），未知时为null
+     */
+    public void setWithLogicalExpire(String key, Object value, Long Time, TimeUnit unit, Long rebuildCost) {
+        if(value == null){
+            //数据已不存在，写入空值
+            setEmpty(key);
+            stringRedisTemplate.opsForZSet().remove(CACHE_EXPIRE_INDEX_KEY, key);
+            localCache.evict(key);
+            return;
+        }
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusMinutes(unit.toMinutes(Time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        redisData.setExpireTime(LocalDateTime.now().plus(jitter(Time, unit), ChronoUnit.MILLIS));
+        redisData.setRebuildCost(rebuildCost);
+        cacheRedisTemplate.opsForValue().set(key, cacheSerializer.encodeWithExpire(redisData));
+        //记录逻辑过期时间，供后台提前刷新
+        stringRedisTemplate.opsForZSet().add(CACHE_EXPIRE_INDEX_KEY, key, toEpochMilli(redisData.getExpireTime()));
+        localCache.evict(key);
+    }
+
+    /**
+     * 删除缓存，并通知所有节点删除本地缓存
+     * @param key
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        stringRedisTemplate.opsForZSet().remove(CACHE_EXPIRE_INDEX_KEY, key);
+        localCache.invalidate(key);
+        cacheMetrics.invalidate(CacheMetrics.prefixOf(key));
+    }
+
+    /**
+     * 批量删除缓存，一次DEL删除Redis中的数据，并通知所有节点删除本地缓存
+     * @param keys
+     */
+    public void delete(Collection<String> keys) {
+        if(keys.isEmpty()){
+            return;
+        }
+        stringRedisTemplate.delete(keys);
+        stringRedisTemplate.opsForZSet().remove(CACHE_EXPIRE_INDEX_KEY, keys.toArray());
+        for (String key : keys) {
+            localCache.invalidate(key);
+            cacheMetrics.invalidate(CacheMetrics.prefixOf(key));
+        }
     }
 
     public <R,ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> clazz, Function<ID,R> dbFallBack, Long time , TimeUnit unit){
+        return degradable(keyPrefix, id, clazz, dbFallBack, false,
+                () -> doQueryWithPassThrough(keyPrefix, id, clazz, dbFallBack, time, unit));
+    }
+
+    private <R,ID> R doQueryWithPassThrough(String keyPrefix, ID id, Class<R> clazz, Function<ID,R> dbFallBack, Long time , TimeUnit unit){
+        //0.1.布隆过滤器判断id是否存在
+        if(!bloomFilterClient.mightContainByKeyPrefix(keyPrefix, id)){
+            cacheMetrics.bloomReject(keyPrefix);
+            return null;
+        }
         String key = keyPrefix + id;
+        //0.2.从本地缓存中查询
+        Object local = getLocal(key);
+        cacheMetrics.local(keyPrefix, local);
+        if(local != null){
+            return local == LocalCache.NULL_VALUE ? null : clazz.cast(local);
+        }
         //1.从Redis中查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = readValue(key, clazz);
+        cacheMetrics.redis(keyPrefix, bytes);
         //2.判断是否存在
-        if(StrUtil.isNotBlank(json)){
-            //3.存在则返回
-            return JSONUtil.toBean(json, clazz);
+        if(bytes != null){
+            //3.存在则写入本地缓存并返回，空值代表数据库中不存在
+            return cacheLocal(key, bytes, clazz);
         }
-        //判断命中的是否为空串
-        if(json != null){
+        //4.不存在，根据id从数据库中查询，同一节点内的并发请求共享同一次查询
+        return singleFlight.execute(key, () -> loadAndCache(key, id, dbFallBack, time, unit),
+                rebuildWaitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 解决缓存击穿方案——互斥锁
+     * 同一节点内只有一个线程竞争Redis互斥锁，其余线程等待其结果；等待有上限，超时返回旧数据或抛出异常
+     * @param keyPrefix
+     * @param lockKeyPrefix
+     * @param id
+     * @param clazz
+     * @param dbFallBack
+     * @param time
+     * @param unit
+     * @return
+     */
+    public <R,ID> R queryWithMutex(String keyPrefix, String lockKeyPrefix, ID id, Class<R> clazz, Function<ID,R> dbFallBack, Long time , TimeUnit unit){
+        return degradable(keyPrefix, id, clazz, dbFallBack, false,
+                () -> doQueryWithMutex(keyPrefix, lockKeyPrefix, id, clazz, dbFallBack, time, unit));
+    }
+
+    private <R,ID> R doQueryWithMutex(String keyPrefix, String lockKeyPrefix, ID id, Class<R> clazz, Function<ID,R> dbFallBack, Long time , TimeUnit unit){
+        //0.1.布隆过滤器判断id是否存在
+        if(!bloomFilterClient.mightContainByKeyPrefix(keyPrefix, id)){
+            cacheMetrics.bloomReject(keyPrefix);
             return null;
         }
-        //4.不存在，根据id从数据库中查询
-        R r = dbFallBack.apply(id);
-        if(r == null){
-            //5.不存在，返回错误
-            stringRedisTemplate.opsForValue().set(key, "",CACHE_NULL_TTL, TimeUnit.MINUTES);
+        String key = keyPrefix + id;
+        //0.2.从本地缓存中查询
+        Object local = getLocal(key);
+        cacheMetrics.local(keyPrefix, local);
+        if(local != null){
+            return local == LocalCache.NULL_VALUE ? null : clazz.cast(local);
+        }
+        //1.从Redis中查询缓存
+        byte[] bytes = readValue(key, clazz);
+        cacheMetrics.redis(keyPrefix, bytes);
+        //2.判断是否存在
+        if(bytes != null){
+            //3.存在则返回，空值代表数据库中不存在
+            return cacheLocal(key, bytes, clazz);
+        }
+        //4.实现缓存重建，同一节点内只有一个线程负责
+        try {
+            return singleFlight.execute(key,
+                    () -> rebuildWithMutex(key, lockKeyPrefix + id, id, clazz, dbFallBack, time, unit),
+                    rebuildWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            //5.重建失败或等待超时，有旧数据则返回旧数据
+            Object stale = localCache.getStale(key);
+            if(stale == null){
+                throw e;
+            }
+            log.warn("缓存{}重建失败，返回旧数据", key, e);
+            cacheMetrics.stale(keyPrefix);
+            return stale == LocalCache.NULL_VALUE ? null : clazz.cast(stale);
+        }
+    }
+
+    private <R,ID> R rebuildWithMutex(String key, String lockKey, ID id, Class<R> clazz, Function<ID,R> dbFallBack, Long time , TimeUnit unit){
+        long deadline = System.currentTimeMillis() + rebuildWaitMillis;
+        while (true) {
+            //4.1.获取互斥锁
+            if(tryLock(lockKey)){
+                try {
+                    //4.2.DoubleCheck
+                    byte[] bytes = readValue(key, clazz);
+                    if(bytes != null){
+                        return cacheLocal(key, bytes, clazz);
+                    }
+                    //4.3.成功，根据id从数据库中查询并写入缓存
+                    return loadAndCache(key, id, dbFallBack, time, unit);
+                } finally {
+                    //4.4.释放互斥锁
+                    unLock(lockKey);
+                }
+            }
+            //4.5.锁被其他节点持有，等待其完成重建，超时则放弃
+            if(System.currentTimeMillis() + LOCK_RETRY_INTERVAL > deadline){
+                throw new RuntimeException("等待缓存" + key + "重建超时");
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            byte[] bytes = readValue(key, clazz);
+            if(bytes != null){
+                return cacheLocal(key, bytes, clazz);
+            }
+        }
+    }
+
+    /**
+     * 查询数据库并写入Redis与本地缓存，不存在时写入空值
+     */
+    private <R,ID> R loadAndCache(String key, ID id, Function<ID,R> dbFallBack, Long time , TimeUnit unit){
+        String keyPrefix = CacheMetrics.prefixOf(key);
+        long begin = System.nanoTime();
+        try {
+            R r = callDb(keyPrefix, () -> dbFallBack.apply(id));
+            if(r == null){
+                //不存在，写入空值
+                setEmpty(key);
+                localCache.put(key, null, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                return null;
+            }
+            //存在，写入Redis内存
+            this.set(key, r, time, unit);
+            putLocal(key, r);
+            return r;
+        } finally {
+            cacheMetrics.recordRebuild(keyPrefix, CacheMetrics.MODE_SYNC, System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 从Redis中读取数据，无法按clazz解码的旧数据视为未命中
+     */
+    private byte[] readValue(String key, Class<?> clazz){
+        byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+        return bytes != null && cacheSerializer.isCompatible(bytes, clazz) ? bytes : null;
+    }
+
+    /**
+     * 将Redis中的值反序列化并写入本地缓存，空值返回null
+     */
+    private <R> R cacheLocal(String key, byte[] bytes, Class<R> clazz){
+        if(bytes.length == 0){
+            localCache.put(key, null, CACHE_NULL_TTL, TimeUnit.MINUTES);
             return null;
         }
-        //6.存在，写入Redis内存
-        this.set(key, r, time, unit);
-        //7.返回
+        R r = cacheSerializer.decode(bytes, clazz);
+        putLocal(key, r);
         return r;
     }
 
     public <R,ID> R queryWithLogicalExpire(String keyPrefix, String lockKeyPrefix, ID id, Class<R> clazz, Function<ID,R> dbFallBack, Long time , TimeUnit unit){
+        return degradable(keyPrefix, id, clazz, dbFallBack, true,
+                () -> doQueryWithLogicalExpire(keyPrefix, lockKeyPrefix, id, clazz, dbFallBack, time, unit));
+    }
+
+    private <R,ID> R doQueryWithLogicalExpire(String keyPrefix, String lockKeyPrefix, ID id, Class<R> clazz, Function<ID,R> dbFallBack, Long time , TimeUnit unit){
+        //0.1.布隆过滤器判断id是否存在
+        if(!bloomFilterClient.mightContainByKeyPrefix(keyPrefix, id)){
+            cacheMetrics.bloomReject(keyPrefix);
+            return null;
+        }
         String key = keyPrefix + id;
+        String lockKey = lockKeyPrefix + id ;
+        recordAccess(Collections.singletonList(key));
+        //0.2.从本地缓存中查询，本地缓存中保存的是已反序列化的数据和逻辑过期时间
+        Object local = getLocal(key);
+        cacheMetrics.local(keyPrefix, local);
+        if(local != null){
+            RedisData localData = (RedisData) local;
+            if(localData.getExpireTime().isAfter(LocalDateTime.now())){
+                //XFetch模式下按概率提前刷新
+                if(shouldRefreshEarly(localData) && tryLock(lockKey)){
+                    cacheMetrics.earlyRefresh(keyPrefix);
+                    submitRebuild(key, lockKey, id, dbFallBack, time, unit);
+                }
+                return clazz.cast(localData.getData());
+            }
+        }
         //1.从Redis中查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+        cacheMetrics.redis(keyPrefix, bytes);
         //2.判断是否存在
-        if(StrUtil.isBlank(json)){
+        if(bytes == null || bytes.length == 0){
             //3.不存在，直接返回错误
             return null;
         }
-        //4.命中，反序列化JSON为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), clazz);
+        //4.命中，反序列化为对象，数据结构已变化的旧数据视为已过期
+        RedisData redisData = null;
+        if(cacheSerializer.isCompatible(bytes, clazz)){
+            redisData = cacheSerializer.decodeWithExpire(bytes, clazz);
+        }
+        R r = redisData == null ? null : clazz.cast(redisData.getData());
         //5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())){
-            //5.1.未过期，直接返回店铺信息
+        if(redisData != null && redisData.getExpireTime().isAfter(LocalDateTime.now())){
+            //5.1.未过期，写入本地缓存后直接返回店铺信息
+            putLocal(key, redisData);
+            //5.2.XFetch模式下，越接近过期、重建越耗时，越有可能提前异步刷新
+            if(shouldRefreshEarly(redisData) && tryLock(lockKey)){
+                cacheMetrics.earlyRefresh(keyPrefix);
+                submitRebuild(key, lockKey, id, dbFallBack, time, unit);
+            }
             return r;
         }
-        //5.2.已过期，开始缓存重建
+        //5.3.已过期，开始缓存重建
 
         //6.缓存重建
         //6.1.获取互斥锁
-        String lockKey = lockKeyPrefix + id ;
         //6.2.判断是否获取成功
         if(tryLock(lockKey)) {
             //DoubleCheck
-            json = stringRedisTemplate.opsForValue().get(key);
-            redisData = JSONUtil.toBean(json, RedisData.class);
-            expireTime = redisData.getExpireTime();
-            if(expireTime.isAfter(LocalDateTime.now())){
-                r = JSONUtil.toBean((JSONObject) redisData.getData(), clazz);
-                return r;
+            bytes = cacheRedisTemplate.opsForValue().get(key);
+            if(bytes != null && bytes.length > 0 && cacheSerializer.isCompatible(bytes, clazz)){
+                redisData = cacheSerializer.decodeWithExpire(bytes, clazz);
+                if(redisData.getExpireTime().isAfter(LocalDateTime.now())){
+                    unLock(lockKey);
+                    putLocal(key, redisData);
+                    return clazz.cast(redisData.getData());
+                }
             }
             //6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(()->{
-                try {
-                    R r_new = dbFallBack.apply(id);
-                    this.setWithLogicalExpire(key, r_new, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    unLock(lockKey);
+            submitRebuild(key, lockKey, id, dbFallBack, time, unit);
+        }
+        //6.4.否则返回过期的商铺信息
+        if(r != null){
+            cacheMetrics.stale(keyPrefix);
+        }
+        return r;
+    }
+
+    /**
+     * 异步重建逻辑过期缓存，并记录重建耗时，调用前需已获取互斥锁
+     * 任务结束或未能提交时都会释放互斥锁，未能提交时调用方继续返回旧数据
+     */
+    private <R,ID> boolean submitRebuild(String key, String lockKey, ID id, Function<ID,R> dbFallBack, Long time , TimeUnit unit){
+        String keyPrefix = CacheMetrics.prefixOf(key);
+        return cacheRebuildExecutor.submit(key, () -> {
+            long begin = System.nanoTime();
+            R r_new = callDb(keyPrefix, () -> dbFallBack.apply(id));
+            this.setWithLogicalExpire(key, r_new, time, unit, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+            cacheMetrics.recordRebuild(keyPrefix, CacheMetrics.MODE_ASYNC, System.nanoTime() - begin);
+        }, () -> unLock(lockKey));
+    }
+
+    /**
+     * 在逻辑过期前主动刷新数据，供后台定时任务调用
+     * @param keyPrefix
+     * @param lockKeyPrefix
+     * @param id
+     * @param dbFallBack
+     * @param time
+     * @param unit
+     * @return 是否已提交重建，锁被占用或重建队列已满时返回false
+     */
+    public <R,ID> boolean refreshLogicalExpire(String keyPrefix, String lockKeyPrefix, ID id, Function<ID,R> dbFallBack, Long time , TimeUnit unit){
+        String lockKey = lockKeyPrefix + id;
+        if(!tryLock(lockKey)){
+            return false;
+        }
+        return submitRebuild(keyPrefix + id, lockKey, id, dbFallBack, time, unit);
+    }
+
+    /**
+     * XFetch：now - rebuildCost * beta * ln(random) >= expireTime 时提前刷新
+     * 距离过期越近、重建耗时越长，提前刷新的概率越大，各节点的刷新时间因随机数而错开
+     * @param redisData 未过期的数据
+     * @return
+     */
+    private boolean shouldRefreshEarly(RedisData redisData){
+        if(!REFRESH_XFETCH.equalsIgnoreCase(refreshStrategy)){
+            return false;
+        }
+        Long rebuildCost = redisData.getRebuildCost();
+        if(rebuildCost == null || rebuildCost <= 0){
+            return false;
+        }
+        long remaining = Duration.between(LocalDateTime.now(), redisData.getExpireTime()).toMillis();
+        //random取(0,1]，-ln(random) >= 0
+        double random = 1D - ThreadLocalRandom.current().nextDouble();
+        return rebuildCost * xfetchBeta * -Math.log(random) >= remaining;
+    }
+
+    /**
+     * 以哈希结构缓存对象，解决缓存穿透
+     * 一次HGETALL读取全部字段，单个字段可通过updateHashFields、incrementHashField原地修改
+     * @param keyPrefix
+     * @param id
+     * @param clazz
+     * @param dbFallBack
+     * @param time
+     * @param unit
+     * @return
+     */
+    public <R,ID> R queryWithHash(String keyPrefix, ID id, Class<R> clazz, Function<ID,R> dbFallBack, Long time , TimeUnit unit){
+        return degradable(keyPrefix, id, clazz, dbFallBack, false,
+                () -> doQueryWithHash(keyPrefix, id, clazz, dbFallBack, time, unit));
+    }
+
+    private <R,ID> R doQueryWithHash(String keyPrefix, ID id, Class<R> clazz, Function<ID,R> dbFallBack, Long time , TimeUnit unit){
+        //0.1.布隆过滤器判断id是否存在
+        if(!bloomFilterClient.mightContainByKeyPrefix(keyPrefix, id)){
+            cacheMetrics.bloomReject(keyPrefix);
+            return null;
+        }
+        String key = keyPrefix + id;
+        //0.2.从本地缓存中查询
+        Object local = getLocal(key);
+        cacheMetrics.local(keyPrefix, local);
+        if(local != null){
+            return local == LocalCache.NULL_VALUE ? null : clazz.cast(local);
+        }
+        //1.从Redis中查询全部字段
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+        boolean empty = entries.containsKey(HASH_EMPTY_FIELD);
+        cacheMetrics.redisHash(keyPrefix, !entries.isEmpty(), empty);
+        //2.命中，空值代表数据库中不存在
+        if(empty){
+            localCache.put(key, null, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return null;
+        }
+        if(!entries.isEmpty()){
+            R r = BeanUtil.fillBeanWithMap(entries, ReflectUtil.newInstance(clazz), false);
+            putLocal(key, r);
+            return r;
+        }
+        //3.未命中，根据id从数据库中查询，同一节点内的并发请求共享同一次查询
+        return singleFlight.execute(key, () -> {
+            long begin = System.nanoTime();
+            R r = callDb(keyPrefix, () -> dbFallBack.apply(id));
+            setHash(key, r, time, unit);
+            if(r == null){
+                localCache.put(key, null, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            } else {
+                putLocal(key, r);
+            }
+            cacheMetrics.recordRebuild(keyPrefix, CacheMetrics.MODE_SYNC, System.nanoTime() - begin);
+            return r;
+        }, rebuildWaitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 以HMGET读取哈希缓存中的部分字段，缓存不存在时先完整加载
+     * @param keyPrefix
+     * @param id
+     * @param clazz
+     * @param dbFallBack
+     * @param time
+     * @param unit
+     * @param fields 需要的字段
+     * @return 字段名与值，数据不存在时返回null
+     */
+    public <R,ID> Map<String, String> queryHashFields(String keyPrefix, ID id, Class<R> clazz, Function<ID,R> dbFallBack, Long time , TimeUnit unit, String... fields){
+        try {
+            return redisBreaker.execute(() -> doQueryHashFields(keyPrefix, id, clazz, dbFallBack, time, unit, fields));
+        } catch (CircuitBreakerOpenException e) {
+            if(!REDIS_BREAKER.equals(e.getBreakerName())){
+                throw e;
+            }
+        } catch (DbFallbackException e) {
+            throw e.getCause();
+        } catch (DataAccessException e) {
+            log.warn("Redis不可用，降级查询{}", keyPrefix + id, e);
+        }
+        //Redis不可用，按整体查询降级后取出需要的字段
+        return toFields(queryWithHash(keyPrefix, id, clazz, dbFallBack, time, unit), fields);
+    }
+
+    private <R,ID> Map<String, String> doQueryHashFields(String keyPrefix, ID id, Class<R> clazz, Function<ID,R> dbFallBack, Long time , TimeUnit unit, String... fields){
+        if(!bloomFilterClient.mightContainByKeyPrefix(keyPrefix, id)){
+            cacheMetrics.bloomReject(keyPrefix);
+            return null;
+        }
+        String key = keyPrefix + id;
+        //1.连同空值标记一起查询
+        List<Object> hashKeys = new ArrayList<>(fields.length + 1);
+        Collections.addAll(hashKeys, (Object[]) fields);
+        hashKeys.add(HASH_EMPTY_FIELD);
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(key, hashKeys);
+        boolean empty = values.get(fields.length) != null;
+        boolean found = empty || values.stream().anyMatch(Objects::nonNull);
+        cacheMetrics.redisHash(keyPrefix, found, empty);
+        if(empty){
+            return null;
+        }
+        Map<String, String> result = new LinkedHashMap<>(fields.length * 2);
+        if(found){
+            for (int i = 0; i < fields.length; i++) {
+                if(values.get(i) != null){
+                    result.put(fields[i], values.get(i).toString());
+                }
+            }
+            return result;
+        }
+        //2.未命中，完整加载后取出需要的字段
+        return toFields(doQueryWithHash(keyPrefix, id, clazz, dbFallBack, time, unit), fields);
+    }
+
+    private static Map<String, String> toFields(Object value, String... fields) {
+        if(value == null){
+            return null;
+        }
+        Map<String, Object> all = toHash(value);
+        Map<String, String> result = new LinkedHashMap<>(fields.length * 2);
+        for (String field : fields) {
+            if(all.get(field) != null){
+                result.put(field, all.get(field).toString());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 以哈希结构写入缓存，null写入空值标记
+     * @param key
+     * @param value
+     * @param time
+     * @param unit
+     */
+    public void setHash(String key, Object value, Long time, TimeUnit unit) {
+        Map<String, Object> hash = value == null ? Collections.singletonMap(HASH_EMPTY_FIELD, "1") : toHash(value);
+        long ttl = value == null ? jitter(CACHE_NULL_TTL, TimeUnit.MINUTES) : jitter(time, unit);
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        Map<byte[], byte[]> rawHash = new HashMap<>(hash.size() * 2);
+        hash.forEach((field, v) -> rawHash.put(field.getBytes(StandardCharsets.UTF_8), v.toString().getBytes(StandardCharsets.UTF_8)));
+        //先删除旧字段，避免残留已置空的字段
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.del(rawKey);
+            connection.hMSet(rawKey, rawHash);
+            connection.pExpire(rawKey, ttl);
+            return null;
+        });
+        localCache.evict(key);
+    }
+
+    /**
+     * 原地更新哈希缓存中的字段，缓存不存在时不写入
+     * @param key
+     * @param fields 字段名与新值，值为null的字段被忽略
+     * @return 缓存是否存在并已更新
+     */
+    public boolean updateHashFields(String key, Map<String, Object> fields) {
+        List<String> args = new ArrayList<>(fields.size() * 2 + 1);
+        args.add("set");
+        fields.forEach((field, value) -> {
+            if(value != null){
+                args.add(field);
+                args.add(toHashValue(value));
+            }
+        });
+        if(args.size() == 1){
+            return false;
+        }
+        Long result = stringRedisTemplate.execute(HASH_UPDATE_SCRIPT, Collections.singletonList(key), args.toArray());
+        localCache.invalidate(key);
+        return result != null;
+    }
+
+    /**
+     * 原地增减哈希缓存中的数值字段，缓存不存在时不写入
+     * @param key
+     * @param field
+     * @param delta
+     * @return 增减后的值，缓存不存在时返回null
+     */
+    public Long incrementHashField(String key, String field, long delta) {
+        Long result = stringRedisTemplate.execute(HASH_UPDATE_SCRIPT, Collections.singletonList(key),
+                "incr", field, String.valueOf(delta));
+        localCache.invalidate(key);
+        return result;
+    }
+
+    /**
+     * 对象转为哈希字段，忽略null，时间按yyyy-MM-dd HH:mm:ss保存以便还原
+     */
+    private static Map<String, Object> toHash(Object value) {
+        return BeanUtil.beanToMap(value, new HashMap<>(), CopyOptions.create()
+                .setIgnoreNullValue(true)
+                .setFieldValueEditor((fieldName, fieldValue) -> fieldValue == null ? null : toHashValue(fieldValue)));
+    }
+
+    private static String toHashValue(Object value) {
+        if(value instanceof LocalDateTime){
+            return LocalDateTimeUtil.formatNormal((LocalDateTime) value);
+        }
+        return value.toString();
+    }
+
+    /**
+     * 批量查询，解决缓存穿透
+     * 一次MGET查询Redis，未命中的id通过一次数据库查询加载，再用管道写回Redis
+     * @param keyPrefix
+     * @param ids
+     * @param clazz
+     * @param dbFallBack 根据id集合批量查询数据库，返回id与数据的对应关系
+     * @param time
+     * @param unit
+     * @return 按输入顺序排列的数据，不存在的id被跳过
+     */
+    public <R,ID> List<R> queryBatch(String keyPrefix, Collection<ID> ids, Class<R> clazz, Function<Collection<ID>, Map<ID,R>> dbFallBack, Long time , TimeUnit unit){
+        return degradableBatch(keyPrefix, ids, clazz, dbFallBack, false,
+                () -> doQueryBatch(keyPrefix, ids, clazz, dbFallBack, time, unit));
+    }
+
+    private <R,ID> List<R> doQueryBatch(String keyPrefix, Collection<ID> ids, Class<R> clazz, Function<Collection<ID>, Map<ID,R>> dbFallBack, Long time , TimeUnit unit){
+        if(ids == null || ids.isEmpty()){
+            return Collections.emptyList();
+        }
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        //1.布隆过滤器与本地缓存
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if(!bloomFilterClient.mightContainByKeyPrefix(keyPrefix, id)){
+                cacheMetrics.bloomReject(keyPrefix);
+                continue;
+            }
+            Object local = getLocal(keyPrefix + id);
+            cacheMetrics.local(keyPrefix, local);
+            if(local != null){
+                found.put(id, local == LocalCache.NULL_VALUE ? null : clazz.cast(local));
+                continue;
+            }
+            remoteIds.add(id);
+        }
+        if(remoteIds.isEmpty()){
+            return inOrder(ids, found);
+        }
+        //2.MGET从Redis中批量查询
+        List<byte[]> values = cacheRedisTemplate.opsForValue().multiGet(keys(keyPrefix, remoteIds));
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            byte[] bytes = values == null ? null : values.get(i);
+            if(bytes != null && !cacheSerializer.isCompatible(bytes, clazz)){
+                bytes = null;
+            }
+            cacheMetrics.redis(keyPrefix, bytes);
+            if(bytes == null){
+                missIds.add(id);
+                continue;
+            }
+            //2.1.命中，空值代表数据库中不存在
+            found.put(id, cacheLocal(keyPrefix + id, bytes, clazz));
+        }
+        if(missIds.isEmpty()){
+            return inOrder(ids, found);
+        }
+        //3.未命中的id一次性从数据库查询
+        long begin = System.nanoTime();
+        Map<ID, R> loaded = callDb(keyPrefix, () -> dbFallBack.apply(missIds));
+        Map<ID, R> rows = loaded == null ? Collections.emptyMap() : loaded;
+        //4.管道写回Redis，不存在的写入空值
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : missIds) {
+                R r = rows.get(id);
+                byte[] key = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                if(r == null){
+                    connection.set(key, EMPTY_VALUE, Expiration.milliseconds(jitter(CACHE_NULL_TTL, TimeUnit.MINUTES)), RedisStringCommands.SetOption.upsert());
+                } else {
+                    connection.set(key, cacheSerializer.encode(r), Expiration.milliseconds(jitter(time, unit)), RedisStringCommands.SetOption.upsert());
+                }
+            }
+            return null;
+        });
+        for (ID id : missIds) {
+            R r = rows.get(id);
+            if(r == null){
+                localCache.put(keyPrefix + id, null, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            } else {
+                putLocal(keyPrefix + id, r);
+            }
+            found.put(id, r);
+        }
+        cacheMetrics.recordRebuild(keyPrefix, CacheMetrics.MODE_SYNC, System.nanoTime() - begin);
+        //5.按输入顺序返回
+        return inOrder(ids, found);
+    }
+
+    /**
+     * 批量查询，解决缓存击穿——逻辑过期
+     * 未命中的id视为不存在；已过期的数据先返回旧值，获取到锁的id合并为一次数据库查询异步重建
+     * @param keyPrefix
+     * @param lockKeyPrefix
+     * @param ids
+     * @param clazz
+     * @param dbFallBack 根据id集合批量查询数据库，返回id与数据的对应关系
+     * @param time
+     * @param unit
+     * @return 按输入顺序排列的数据，不存在的id被跳过
+     */
+    public <R,ID> List<R> queryBatchWithLogicalExpire(String keyPrefix, String lockKeyPrefix, Collection<ID> ids, Class<R> clazz, Function<Collection<ID>, Map<ID,R>> dbFallBack, Long time , TimeUnit unit){
+        return degradableBatch(keyPrefix, ids, clazz, dbFallBack, true,
+                () -> doQueryBatchWithLogicalExpire(keyPrefix, lockKeyPrefix, ids, clazz, dbFallBack, time, unit));
+    }
+
+    private <R,ID> List<R> doQueryBatchWithLogicalExpire(String keyPrefix, String lockKeyPrefix, Collection<ID> ids, Class<R> clazz, Function<Collection<ID>, Map<ID,R>> dbFallBack, Long time , TimeUnit unit){
+        if(ids == null || ids.isEmpty()){
+            return Collections.emptyList();
+        }
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        LocalDateTime now = LocalDateTime.now();
+        List<ID> lockedIds = new ArrayList<>();
+        //1.布隆过滤器与本地缓存
+        List<ID> remoteIds = new ArrayList<>();
+        List<String> accessed = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if(!bloomFilterClient.mightContainByKeyPrefix(keyPrefix, id)){
+                cacheMetrics.bloomReject(keyPrefix);
+                continue;
+            }
+            accessed.add(keyPrefix + id);
+            Object local = getLocal(keyPrefix + id);
+            cacheMetrics.local(keyPrefix, local);
+            if(local != null && ((RedisData) local).getExpireTime().isAfter(now)){
+                found.put(id, clazz.cast(((RedisData) local).getData()));
+                if(shouldRefreshEarly((RedisData) local) && tryLock(lockKeyPrefix + id)){
+                    cacheMetrics.earlyRefresh(keyPrefix);
+                    lockedIds.add(id);
+                }
+                continue;
+            }
+            remoteIds.add(id);
+        }
+        recordAccess(accessed);
+        //2.MGET从Redis中批量查询
+        List<byte[]> values = remoteIds.isEmpty()
+                ? Collections.emptyList() : cacheRedisTemplate.opsForValue().multiGet(keys(keyPrefix, remoteIds));
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            byte[] bytes = values == null ? null : values.get(i);
+            cacheMetrics.redis(keyPrefix, bytes);
+            if(bytes == null || bytes.length == 0){
+                //2.1.未命中，视为不存在
+                continue;
+            }
+            //2.2.数据结构已变化的旧数据视为已过期
+            RedisData redisData = null;
+            if(cacheSerializer.isCompatible(bytes, clazz)){
+                redisData = cacheSerializer.decodeWithExpire(bytes, clazz);
+                found.put(id, clazz.cast(redisData.getData()));
+            }
+            if(redisData != null && redisData.getExpireTime().isAfter(now)){
+                putLocal(keyPrefix + id, redisData);
+                //2.3.XFetch模式下按概率提前刷新
+                if(shouldRefreshEarly(redisData) && tryLock(lockKeyPrefix + id)){
+                    cacheMetrics.earlyRefresh(keyPrefix);
+                    lockedIds.add(id);
+                }
+                continue;
+            }
+            //2.4.已过期，先返回旧数据，获取到锁的id等待重建
+            if(redisData != null){
+                cacheMetrics.stale(keyPrefix);
+            }
+            if(tryLock(lockKeyPrefix + id)){
+                lockedIds.add(id);
+            }
+        }
+        //3.获取到锁的id合并为一次数据库查询，异步重建
+        if(!lockedIds.isEmpty()){
+            cacheRebuildExecutor.submit(keyPrefix + lockedIds, () -> {
+                long begin = System.nanoTime();
+                Map<ID, R> loaded = callDb(keyPrefix, () -> dbFallBack.apply(lockedIds));
+                if(loaded != null && !loaded.isEmpty()){
+                    setBatchWithLogicalExpire(keyPrefix, loaded, time, unit, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                }
+                cacheMetrics.recordRebuild(keyPrefix, CacheMetrics.MODE_ASYNC, System.nanoTime() - begin);
+            }, () -> {
+                for (ID id : lockedIds) {
+                    unLock(lockKeyPrefix + id);
                 }
             });
         }
-        //6.4.否则返回过期的商铺信息
+        //4.按输入顺序返回
+        return inOrder(ids, found);
+    }
+
+    /**
+     * 使用管道批量写入普通缓存，格式与queryWithMutex、queryBatch读取的一致
+     * @param keyPrefix
+     * @param values
+     * @param time
+     * @param unit
+     */
+    public <R,ID> void setBatch(String keyPrefix, Map<ID, R> values, Long time, TimeUnit unit) {
+        if(values.isEmpty()){
+            return;
+        }
+        byte[] indexKey = CACHE_EXPIRE_INDEX_KEY.getBytes(StandardCharsets.UTF_8);
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((id, value) -> {
+                //每个key单独计算随机过期时间
+                byte[] key = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                connection.set(key, cacheSerializer.encode(value), Expiration.milliseconds(jitter(time, unit)), RedisStringCommands.SetOption.upsert());
+                //不再是逻辑过期数据，不需要后台刷新
+                connection.zRem(indexKey, key);
+            });
+            return null;
+        });
+        values.keySet().forEach(id -> localCache.evict(keyPrefix + id));
+    }
+
+    /**
+     * 使用管道批量写入逻辑过期数据
+     * @param keyPrefix
+     * @param values
+     * @param time
+     * @param unit
+     */
+    public <R,ID> void setBatchWithLogicalExpire(String keyPrefix, Map<ID, R> values, Long time, TimeUnit unit) {
+        setBatchWithLogicalExpire(keyPrefix, values, time, unit, null);
+    }
+
+    /**
+     * 使用管道批量写入逻辑过期数据，同时记录本次重建耗时
+     * @param keyPrefix
+     * @param values
+     * @param time
+     * @param unit
+     * @param rebuildCost 重建耗时（毫秒），未知时为null
+     */
+    public <R,ID> void setBatchWithLogicalExpire(String keyPrefix, Map<ID, R> values, Long time, TimeUnit unit, Long rebuildCost) {
+        LocalDateTime now = LocalDateTime.now();
+        byte[] indexKey = CACHE_EXPIRE_INDEX_KEY.getBytes(StandardCharsets.UTF_8);
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((id, value) -> {
+                //每个key单独计算随机过期时间
+                RedisData redisData = new RedisData();
+                redisData.setData(value);
+                redisData.setExpireTime(now.plus(jitter(time, unit), ChronoUnit.MILLIS));
+                redisData.setRebuildCost(rebuildCost);
+                byte[] key = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                connection.set(key, cacheSerializer.encodeWithExpire(redisData));
+                connection.zAdd(indexKey, toEpochMilli(redisData.getExpireTime()), key);
+            });
+            return null;
+        });
+        values.keySet().forEach(id -> localCache.evict(keyPrefix + id));
+    }
+
+    /**
+     * 记录逻辑过期key的最近访问时间，后台只提前刷新近期有人读取的key
+     * 本地缓存命中时同样记录，每个key每个间隔最多上报一次
+     */
+    private void recordAccess(List<String> keys){
+        long now = System.currentTimeMillis();
+        List<String> due = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            //containsKey不会延长有效期
+            if(!accessReported.containsKey(key)){
+                accessReported.put(key, Boolean.TRUE);
+                due.add(key);
+            }
+        }
+        if(due.isEmpty()){
+            return;
+        }
+        byte[] accessKey = CACHE_ACCESS_INDEX_KEY.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : due) {
+                connection.zAdd(accessKey, now, key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 后台不再跟踪该key时，清除本节点的上报记录
+     * @param key
+     */
+    public void forgetAccess(String key){
+        accessReported.remove(key);
+    }
+
+    /**
+     * 查询本地缓存，同时统计访问次数用于热点探测
+     */
+    private Object getLocal(String key){
+        hotKeyDetector.record(key);
+        return localCache.get(key);
+    }
+
+    /**
+     * 写入本地缓存，热点key同时写入短有效期的副本
+     */
+    private void putLocal(String key, Object value){
+        localCache.put(key, value);
+        if(hotKeyDetector.isHot(key)){
+            localCache.replicate(key, value, hotKeyDetector.getReplicaTtlMillis());
+        }
+    }
+
+    /**
+     * 在熔断器保护下查询数据库，数据库异常包装为DbFallbackException，以便与Redis异常区分
+     */
+    private <T> T callDb(String keyPrefix, Supplier<T> query){
+        CircuitBreaker breaker = dbBreakers.computeIfAbsent(keyPrefix, k -> {
+            CircuitBreaker b = new CircuitBreaker("db:" + k, breakerWindowSize, breakerMinimumCalls, breakerFailureRate,
+                    breakerOpenMillis, dbSlowCallMillis, dbMaxConcurrency, e -> true);
+            cacheMetrics.registerBreaker(b);
+            return b;
+        });
+        try {
+            return breaker.execute(() -> cacheMetrics.recordDbFallback(keyPrefix, query));
+        } catch (CircuitBreakerOpenException e) {
+            cacheMetrics.breakerRejected(e.getBreakerName());
+            throw e;
+        } catch (RuntimeException e) {
+            throw new DbFallbackException(e);
+        }
+    }
+
+    /**
+     * 降级时查询数据库，异常原样抛出
+     */
+    private <T> T loadDegraded(String keyPrefix, Supplier<T> query){
+        try {
+            return callDb(keyPrefix, query);
+        } catch (DbFallbackException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 在Redis熔断器保护下执行查询，Redis异常或已熔断时降级
+     */
+    private <R,ID> R degradable(String keyPrefix, ID id, Class<R> clazz, Function<ID,R> dbFallBack, boolean logical, Supplier<R> query){
+        try {
+            return redisBreaker.execute(query);
+        } catch (CircuitBreakerOpenException e) {
+            if(!REDIS_BREAKER.equals(e.getBreakerName())){
+                throw e;
+            }
+        } catch (DbFallbackException e) {
+            throw e.getCause();
+        } catch (DataAccessException e) {
+            log.warn("Redis不可用，降级查询{}", keyPrefix + id, e);
+        }
+        return queryDegraded(keyPrefix, id, clazz, dbFallBack, logical);
+    }
+
+    private <R,ID> List<R> degradableBatch(String keyPrefix, Collection<ID> ids, Class<R> clazz, Function<Collection<ID>, Map<ID,R>> dbFallBack, boolean logical, Supplier<List<R>> query){
+        try {
+            return redisBreaker.execute(query);
+        } catch (CircuitBreakerOpenException e) {
+            if(!REDIS_BREAKER.equals(e.getBreakerName())){
+                throw e;
+            }
+        } catch (DbFallbackException e) {
+            throw e.getCause();
+        } catch (DataAccessException e) {
+            log.warn("Redis不可用，降级批量查询{}", keyPrefix, e);
+        }
+        return queryBatchDegraded(keyPrefix, ids, clazz, dbFallBack, logical);
+    }
+
+    /**
+     * Redis不可用时的降级查询
+     * 优先返回本地缓存中的数据，允许已过期；没有时在熔断器保护下直接查询数据库，结果只写入本地缓存
+     * @param logical 是否为逻辑过期缓存，本地缓存中需保存RedisData
+     */
+    private <R,ID> R queryDegraded(String keyPrefix, ID id, Class<R> clazz, Function<ID,R> dbFallBack, boolean logical){
+        cacheMetrics.degraded(keyPrefix);
+        if(!bloomFilterClient.mightContainByKeyPrefix(keyPrefix, id)){
+            return null;
+        }
+        String key = keyPrefix + id;
+        Object stale = localCache.getStale(key);
+        if(stale != null){
+            cacheMetrics.stale(keyPrefix);
+            return unwrapLocal(stale, clazz);
+        }
+        R r = loadDegraded(keyPrefix, () -> dbFallBack.apply(id));
+        putDegraded(key, r, logical);
         return r;
     }
 
-    private Boolean tryLock(String key){
-        return stringRedisTemplate.opsForValue().setIfAbsent(key,"1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
+    private <R,ID> List<R> queryBatchDegraded(String keyPrefix, Collection<ID> ids, Class<R> clazz, Function<Collection<ID>, Map<ID,R>> dbFallBack, boolean logical){
+        cacheMetrics.degraded(keyPrefix);
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        List<ID> missIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if(!bloomFilterClient.mightContainByKeyPrefix(keyPrefix, id)){
+                continue;
+            }
+            Object stale = localCache.getStale(keyPrefix + id);
+            if(stale != null){
+                cacheMetrics.stale(keyPrefix);
+                found.put(id, unwrapLocal(stale, clazz));
+            } else {
+                missIds.add(id);
+            }
+        }
+        if(!missIds.isEmpty()){
+            Map<ID, R> loaded = loadDegraded(keyPrefix, () -> dbFallBack.apply(missIds));
+            if(loaded != null){
+                loaded.forEach((id, r) -> {
+                    putDegraded(keyPrefix + id, r, logical);
+                    found.put(id, r);
+                });
+            }
+        }
+        return inOrder(ids, found);
+    }
+
+    /**
+     * 降级查询的结果写入本地缓存；逻辑过期数据包装为已过期的RedisData，Redis恢复后会重新读取
+     */
+    private void putDegraded(String key, Object value, boolean logical){
+        if(!logical){
+            localCache.put(key, value);
+            return;
+        }
+        if(value == null){
+            return;
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now());
+        localCache.put(key, redisData);
+    }
+
+    private static <R> R unwrapLocal(Object value, Class<R> clazz){
+        Object data = value instanceof RedisData ? ((RedisData) value).getData() : value;
+        return data == LocalCache.NULL_VALUE ? null : clazz.cast(data);
+    }
+
+    /**
+     * 数据库查询异常，与Redis异常区分后再原样抛出
+     */
+    private static class DbFallbackException extends RuntimeException {
+        private DbFallbackException(RuntimeException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized RuntimeException getCause() {
+            return (RuntimeException) super.getCause();
+        }
+    }
+
+    /**
+     * 写入空值，代表数据库中不存在该数据
+     */
+    private void setEmpty(String key){
+        cacheRedisTemplate.opsForValue().set(key, EMPTY_VALUE, jitter(CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在过期时间上随机增加0~ttlJitterRatio倍，打散同一批key的过期时间
+     * @param time
+     * @param unit
+     * @return 加上随机值后的过期时间（毫秒）
+     */
+    private long jitter(long time, TimeUnit unit){
+        long millis = unit.toMillis(time);
+        long bound = (long) (millis * ttlJitterRatio);
+        if(bound <= 0){
+            return millis;
+        }
+        return millis + ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private static long toEpochMilli(LocalDateTime time){
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static <ID> List<String> keys(String keyPrefix, List<ID> ids) {
+        List<String> keys = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            keys.add(keyPrefix + id);
+        }
+        return keys;
+    }
+
+    private static <R,ID> List<R> inOrder(Collection<ID> ids, Map<ID, R> found) {
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if(r != null){
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 各级缓存的命中统计
+     * @return
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long localHit = localCache.getHitCount();
+        long localMiss = localCache.getMissCount();
+        long redisHit = cacheMetrics.sumRequests(CacheMetrics.TIER_REDIS, "hit") + cacheMetrics.sumRequests(CacheMetrics.TIER_REDIS, "empty");
+        long redisMiss = cacheMetrics.sumRequests(CacheMetrics.TIER_REDIS, "miss");
+        stats.put("localEnabled", localCache.isEnabled());
+        stats.put("localSize", localCache.size());
+        stats.put("hotReplicaSize", localCache.replicaSize());
+        stats.put("localHit", localHit);
+        stats.put("localMiss", localMiss);
+        stats.put("localHitRatio", ratio(localHit, localMiss));
+        stats.put("redisHit", redisHit);
+        stats.put("redisMiss", redisMiss);
+        stats.put("redisHitRatio", ratio(redisHit, redisMiss));
+        stats.put("bloomReject", cacheMetrics.sumBloomReject());
+        stats.put("staleServed", cacheMetrics.sumStale());
+        stats.put("earlyRefresh", cacheMetrics.sumEarlyRefresh());
+        stats.put("rebuildInFlight", singleFlight.size());
+        stats.put("rebuildExecutor", cacheRebuildExecutor.getStats());
+        Map<String, Object> breakers = new LinkedHashMap<>();
+        breakers.put(redisBreaker.getName(), redisBreaker.getState());
+        dbBreakers.values().forEach(b -> breakers.put(b.getName(), b.getState()));
+        stats.put("breakers", breakers);
+        return stats;
+    }
+
+    private static double ratio(long hit, long miss) {
+        long total = hit + miss;
+        return total == 0 ? 0D : (double) hit / total;
+    }
+
+    private boolean tryLock(String key){
+        boolean acquired = BooleanUtil.isTrue(stringRedisTemplate.opsForValue().setIfAbsent(key,"1", LOCK_SHOP_TTL, TimeUnit.SECONDS));
+        cacheMetrics.lock(CacheMetrics.prefixOf(key), acquired);
+        return acquired;
     }
 
     private void unLock(String key){
@@ -0,0 +1,43 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存数据编解码器
+ */
+public interface CacheCodec {
+
+    /**
+     * 判断数据是否为本编解码器写入的格式
+     * @param bytes 非空数据
+     * @return
+     */
+    boolean supports(byte[] bytes);
+
+    /**
+     * 判断数据能否按指定类型解码，不能解码的数据应视为未命中
+     * @param bytes 非空数据
+     * @param clazz 数据类型
+     * @return
+     */
+    default boolean isCompatible(byte[] bytes, Class<?> clazz) {
+        return true;
+    }
+
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] bytes, Class<T> clazz);
+
+    /**
+     * 编码逻辑过期数据
+     * @param redisData 数据与逻辑过期时间
+     * @return
+     */
+    byte[] encodeWithExpire(RedisData redisData);
+
+    /**
+     * 解码逻辑过期数据
+     * @param bytes
+     * @param clazz 数据类型
+     * @return data已转换为clazz类型的RedisData
+     */
+    <T> RedisData decodeWithExpire(byte[] bytes, Class<T> clazz);
+}
@@ -0,0 +1,177 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 缓存指标，均按key前缀打标签，通过/actuator/prometheus暴露
+ * cache.requests：tier=local|redis，result=hit|empty|miss
+ * cache.lock：result=acquired|failed
+ * cache.stale、cache.bloom.reject、cache.refresh.early、cache.invalidate：计数
+ * cache.db.fallback、cache.rebuild：耗时，rebuild带mode=sync|async
+ * cache.degraded：Redis不可用时的降级查询次数
+ * cache.breaker.state：熔断器状态，0关闭、1半开、2打开；cache.breaker.rejected：快速失败次数，按熔断器名称打标签
+ */
+@Component
+public class CacheMetrics {
+
+    public static final String TIER_LOCAL = "local";
+    public static final String TIER_REDIS = "redis";
+
+    public static final String MODE_SYNC = "sync";
+    public static final String MODE_ASYNC = "async";
+
+    private static final String REQUESTS = "cache.requests";
+    private static final String LOCK = "cache.lock";
+    private static final String STALE = "cache.stale";
+    private static final String BLOOM_REJECT = "cache.bloom.reject";
+    private static final String EARLY_REFRESH = "cache.refresh.early";
+    private static final String INVALIDATE = "cache.invalidate";
+    private static final String DEGRADED = "cache.degraded";
+    private static final String BREAKER_STATE = "cache.breaker.state";
+    private static final String BREAKER_ACTIVE = "cache.breaker.active";
+    private static final String BREAKER_REJECTED = "cache.breaker.rejected";
+    private static final String DB_FALLBACK = "cache.db.fallback";
+    private static final String REBUILD = "cache.rebuild";
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 记录本地缓存的查询结果
+     * @param prefix
+     * @param value 本地缓存返回值，null为未命中
+     */
+    public void local(String prefix, Object value) {
+        request(prefix, TIER_LOCAL, value == null ? "miss" : value == LocalCache.NULL_VALUE ? "empty" : "hit");
+    }
+
+    /**
+     * 记录Redis的查询结果
+     * @param prefix
+     * @param bytes Redis返回值，null为未命中，空数组为空值
+     */
+    public void redis(String prefix, byte[] bytes) {
+        request(prefix, TIER_REDIS, bytes == null ? "miss" : bytes.length == 0 ? "empty" : "hit");
+    }
+
+    /**
+     * 记录Redis哈希的查询结果
+     * @param prefix
+     * @param found 是否存在
+     * @param empty 是否为空值
+     */
+    public void redisHash(String prefix, boolean found, boolean empty) {
+        request(prefix, TIER_REDIS, !found ? "miss" : empty ? "empty" : "hit");
+    }
+
+    private void request(String prefix, String tier, String result) {
+        meterRegistry.counter(REQUESTS, "prefix", prefix, "tier", tier, "result", result).increment();
+    }
+
+    public void lock(String prefix, boolean acquired) {
+        meterRegistry.counter(LOCK, "prefix", prefix, "result", acquired ? "acquired" : "failed").increment();
+    }
+
+    public void stale(String prefix) {
+        meterRegistry.counter(STALE, "prefix", prefix).increment();
+    }
+
+    public void bloomReject(String prefix) {
+        meterRegistry.counter(BLOOM_REJECT, "prefix", prefix).increment();
+    }
+
+    public void earlyRefresh(String prefix) {
+        meterRegistry.counter(EARLY_REFRESH, "prefix", prefix).increment();
+    }
+
+    public void invalidate(String prefix) {
+        meterRegistry.counter(INVALIDATE, "prefix", prefix).increment();
+    }
+
+    public void degraded(String prefix) {
+        meterRegistry.counter(DEGRADED, "prefix", prefix).increment();
+    }
+
+    /**
+     * 注册熔断器的状态与并发数
+     * @param breaker
+     */
+    public void registerBreaker(CircuitBreaker breaker) {
+        Gauge.builder(BREAKER_STATE, breaker, b -> b.getState().ordinal())
+                .tag("name", breaker.getName())
+                .register(meterRegistry);
+        Gauge.builder(BREAKER_ACTIVE, breaker, CircuitBreaker::getActiveCalls)
+                .tag("name", breaker.getName())
+                .register(meterRegistry);
+    }
+
+    public void breakerRejected(String name) {
+        meterRegistry.counter(BREAKER_REJECTED, "name", name).increment();
+    }
+
+    /**
+     * 执行数据库查询并记录耗时
+     */
+    public <T> T recordDbFallback(String prefix, Supplier<T> query) {
+        return meterRegistry.timer(DB_FALLBACK, "prefix", prefix).record(query);
+    }
+
+    public void recordRebuild(String prefix, String mode, long nanos) {
+        meterRegistry.timer(REBUILD, "prefix", prefix, "mode", mode).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 汇总所有前缀的计数
+     * @param name 指标名
+     * @param tags 额外的过滤标签，键值交替
+     * @return
+     */
+    public long sum(String name, String... tags) {
+        double total = 0;
+        for (Counter counter : meterRegistry.find(name).tags(tags).counters()) {
+            total += counter.count();
+        }
+        return (long) total;
+    }
+
+    public long sumRequests(String tier, String result) {
+        return sum(REQUESTS, "tier", tier, "result", result);
+    }
+
+    public long sumStale() {
+        return sum(STALE);
+    }
+
+    public long sumBloomReject() {
+        return sum(BLOOM_REJECT);
+    }
+
+    public long sumEarlyRefresh() {
+        return sum(EARLY_REFRESH);
+    }
+
+    /**
+     * 取key中最后一个':'及之前的部分作为前缀，如cache:shop:1 -> cache:shop:
+     * @param key
+     * @return
+     */
+    public static String prefixOf(String key) {
+        int index = key.lastIndexOf(':');
+        return index < 0 ? key : key.substring(0, index + 1);
+    }
+
+    /**
+     * 生成指定前缀的计时器，供业务代码记录整体耗时
+     */
+    public Timer timer(String name, String prefix) {
+        return meterRegistry.timer(name, "prefix", prefix);
+    }
+}
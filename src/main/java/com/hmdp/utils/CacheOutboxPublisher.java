@@ -0,0 +1,148 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_OUTBOX_KEY;
+
+/**
+ * 事务提交后的缓存失效
+ * 业务更新时在同一事务中向tb_cache_outbox写入需要删除的缓存key，事务回滚则不会删除；
+ * 提交后立即触发一次发布，另有定时任务兜底，按批删除Redis缓存并广播删除本地缓存，
+ * 可选在一段时间后再删除一次，清除并发读取期间写回的旧数据
+ */
+@Slf4j
+@Component
+public class CacheOutboxPublisher {
+
+    @Resource
+    private CacheOutboxMapper cacheOutboxMapper;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Value("${hmdp.cache.outbox.poll-interval-millis:500}")
+    private long pollIntervalMillis;
+
+    @Value("${hmdp.cache.outbox.batch-size:100}")
+    private int batchSize;
+
+    //延迟双删的间隔，0表示不进行第二次删除
+    @Value("${hmdp.cache.outbox.double-delete-delay-millis:1000}")
+    private long doubleDeleteDelayMillis;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    private void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::publish, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 在当前事务中记录需要删除的缓存，事务提交后立即发布
+     * @param keys
+     */
+    public void enqueue(String... keys) {
+        for (String key : keys) {
+            cacheOutboxMapper.insert(new CacheOutbox().setCacheKey(key));
+        }
+        afterCommit(() -> scheduler.execute(this::publish));
+    }
+
+    /**
+     * 当前存在事务时在提交后执行，否则立即执行
+     * @param action
+     */
+    public static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * 按批删除发件箱中的缓存，多个节点中同一时间只有一个在发布
+     */
+    private void publish() {
+        RLock lock = redissonClient.getLock(LOCK_CACHE_OUTBOX_KEY);
+        boolean isLock = false;
+        try {
+            isLock = lock.tryLock();
+            if (!isLock) {
+                return;
+            }
+            while (true) {
+                //1.取出最早的一批
+                List<CacheOutbox> rows = cacheOutboxMapper.selectList(new QueryWrapper<CacheOutbox>()
+                        .orderByAsc("id").last("LIMIT " + batchSize));
+                if (rows.isEmpty()) {
+                    return;
+                }
+                //2.删除缓存，同一key只删除一次
+                Set<String> keys = rows.stream().map(CacheOutbox::getCacheKey).collect(Collectors.toCollection(LinkedHashSet::new));
+                cacheClient.delete(keys);
+                //3.删除已发布的记录
+                cacheOutboxMapper.deleteBatchIds(rows.stream().map(CacheOutbox::getId).collect(Collectors.toList()));
+                //4.延迟双删
+                if (doubleDeleteDelayMillis > 0) {
+                    scheduler.schedule(() -> deleteAgain(keys), doubleDeleteDelayMillis, TimeUnit.MILLISECONDS);
+                }
+                if (rows.size() < batchSize) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            log.error("发布缓存失效失败", e);
+        } finally {
+            if (isLock) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void deleteAgain(Set<String> keys) {
+        try {
+            cacheClient.delete(keys);
+        } catch (Exception e) {
+            log.error("延迟删除缓存{}失败", keys, e);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存异步重建线程池，所有缓存重建任务共用
+ * 队列有界，同一key排队或执行中时不会重复提交；队列已满时拒绝提交，调用方继续返回旧数据
+ * 每次重建有超时时间，超时后中断执行线程
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${hmdp.cache.rebuild.threads:10}")
+    private int threads;
+
+    @Value("${hmdp.cache.rebuild.queue-capacity:200}")
+    private int queueCapacity;
+
+    @Value("${hmdp.cache.rebuild.timeout-millis:3000}")
+    private long timeoutMillis;
+
+    private ThreadPoolExecutor executor;
+
+    //负责重建超时后中断执行线程
+    private ScheduledExecutorService watchdog;
+
+    //排队或执行中的key
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder dedupedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder succeededCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    //重建耗时（毫秒）
+    private final LongAdder latencyTotal = new LongAdder();
+    private final LongAccumulator latencyMax = new LongAccumulator(Long::max, 0L);
+
+    @PostConstruct
+    private void init() {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), namedThreads("cache-rebuild-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        watchdog = Executors.newSingleThreadScheduledExecutor(namedThreads("cache-rebuild-watchdog-"));
+        Gauge.builder("cache.rebuild.queue.depth", this, CacheRebuildExecutor::getQueueDepth).register(meterRegistry);
+        Gauge.builder("cache.rebuild.active", executor, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+        FunctionCounter.builder("cache.rebuild.rejected", rejectedCount, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("cache.rebuild.failed", failedCount, LongAdder::sum).register(meterRegistry);
+        FunctionCounter.builder("cache.rebuild.timeout", timeoutCount, LongAdder::sum).register(meterRegistry);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 去重的key，同一key排队或执行中时本次提交被忽略
+     * @param task 重建逻辑
+     * @param cleanup 任务结束、被去重或被拒绝时都会执行一次，一般用于释放互斥锁
+     * @return 是否已提交，false时调用方继续使用旧数据
+     */
+    public boolean submit(String key, Runnable task, Runnable cleanup) {
+        if (!pendingKeys.add(key)) {
+            //1.同一key已在排队或执行中
+            dedupedCount.increment();
+            runQuietly(cleanup);
+            return false;
+        }
+        try {
+            executor.execute(() -> run(key, task, cleanup));
+            submittedCount.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            //2.队列已满，放弃本次重建
+            rejectedCount.increment();
+            log.warn("缓存重建队列已满，放弃重建{}", key);
+            pendingKeys.remove(key);
+            runQuietly(cleanup);
+            return false;
+        }
+    }
+
+    private void run(String key, Runnable task, Runnable cleanup) {
+        RunningTask running = new RunningTask(Thread.currentThread());
+        //1.超时后中断执行线程，只在本任务仍在执行时中断
+        ScheduledFuture<?> timer = watchdog.schedule(() -> {
+            if (running.interruptIfRunning()) {
+                timeoutCount.increment();
+                log.warn("缓存{}重建超过{}ms，中断执行", key, timeoutMillis);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        long begin = System.currentTimeMillis();
+        try {
+            task.run();
+            succeededCount.increment();
+        } catch (Exception e) {
+            failedCount.increment();
+            log.error("缓存{}重建失败", key, e);
+        } finally {
+            long cost = System.currentTimeMillis() - begin;
+            latencyTotal.add(cost);
+            latencyMax.accumulate(cost);
+            timer.cancel(false);
+            //2.标记结束后看门狗不会再中断本线程，再清除残留的中断标记，避免影响下一个任务
+            running.finish();
+            Thread.interrupted();
+            pendingKeys.remove(key);
+            runQuietly(cleanup);
+        }
+    }
+
+    /**
+     * 执行中的任务，结束标记和中断在同一把锁下判断，任务结束后不会再被中断
+     */
+    private static class RunningTask {
+        private final Thread worker;
+        private boolean finished;
+
+        private RunningTask(Thread worker) {
+            this.worker = worker;
+        }
+
+        private synchronized boolean interruptIfRunning() {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            worker.interrupt();
+            return true;
+        }
+
+        private synchronized void finish() {
+            finished = true;
+        }
+    }
+
+    private static void runQuietly(Runnable cleanup) {
+        if (cleanup == null) {
+            return;
+        }
+        try {
+            cleanup.run();
+        } catch (Exception e) {
+            log.error("缓存重建清理失败", e);
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 当前排队的任务数
+     * @return
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 重建线程池的运行统计
+     * @return
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long finished = succeededCount.sum() + failedCount.sum();
+        stats.put("queueDepth", getQueueDepth());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("active", executor.getActiveCount());
+        stats.put("submitted", submittedCount.sum());
+        stats.put("deduped", dedupedCount.sum());
+        stats.put("rejected", rejectedCount.sum());
+        stats.put("succeeded", succeededCount.sum());
+        stats.put("failed", failedCount.sum());
+        stats.put("timeout", timeoutCount.sum());
+        stats.put("latencyAvgMillis", finished == 0 ? 0L : latencyTotal.sum() / finished);
+        stats.put("latencyMaxMillis", latencyMax.get());
+        return stats;
+    }
+}
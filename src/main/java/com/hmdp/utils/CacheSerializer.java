@@ -0,0 +1,65 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * 缓存数据序列化入口
+ * 写入使用配置的编解码器；开启混合读取时按数据头部识别格式，灰度切换期间JSON与二进制数据均可读取
+ * 空值（长度为0）表示数据库中不存在，不经过编解码器
+ */
+@Component
+public class CacheSerializer {
+
+    private final CacheCodec jsonCodec = new JsonCacheCodec();
+
+    private final CacheCodec binaryCodec = new BinaryCacheCodec();
+
+    @Value("${hmdp.cache.codec.write:binary}")
+    private String writeFormat;
+
+    @Value("${hmdp.cache.codec.mixed-read:true}")
+    private boolean mixedRead;
+
+    private CacheCodec writer;
+
+    @PostConstruct
+    private void init(){
+        writer = "json".equalsIgnoreCase(writeFormat) ? jsonCodec : binaryCodec;
+    }
+
+    public byte[] encode(Object value){
+        return writer.encode(value);
+    }
+
+    /**
+     * 判断Redis中的数据能否按指定类型解码
+     * @param bytes Redis中的数据
+     * @param clazz 数据类型
+     * @return 空值与可解码的数据返回true
+     */
+    public boolean isCompatible(byte[] bytes, Class<?> clazz){
+        return bytes.length == 0 || reader(bytes).isCompatible(bytes, clazz);
+    }
+
+    public <T> T decode(byte[] bytes, Class<T> clazz){
+        return reader(bytes).decode(bytes, clazz);
+    }
+
+    public byte[] encodeWithExpire(RedisData redisData){
+        return writer.encodeWithExpire(redisData);
+    }
+
+    public <T> RedisData decodeWithExpire(byte[] bytes, Class<T> clazz){
+        return reader(bytes).decodeWithExpire(bytes, clazz);
+    }
+
+    private CacheCodec reader(byte[] bytes){
+        if(!mixedRead){
+            return writer;
+        }
+        return binaryCodec.supports(bytes) ? binaryCodec : jsonCodec;
+    }
+}
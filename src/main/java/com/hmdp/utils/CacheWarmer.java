@@ -0,0 +1,210 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动时缓存预热
+ * 在应用就绪前执行：按销量与评分加载前N个店铺、店铺类型列表、附近店铺与名称的索引、各类型的店铺列表以及进行中秒杀券的库存
+ * 店铺分页从数据库读取，多页并发，每页按查询接口读取的缓存格式写入
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.cache.warm-up.enabled:true}")
+    private boolean enabled;
+
+    //预热的店铺数量
+    @Value("${hmdp.cache.warm-up.shop-top-n:1000}")
+    private int shopTopN;
+
+    //每页从数据库读取的数量
+    @Value("${hmdp.cache.warm-up.page-size:200}")
+    private int pageSize;
+
+    //同时处理的页数
+    @Value("${hmdp.cache.warm-up.concurrency:4}")
+    private int concurrency;
+
+    //各阶段的预热结果，阶段名 -> 数量与耗时
+    private final Map<String, Map<String, Object>> report = new ConcurrentHashMap<>();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        log.info("缓存预热开始");
+        warmUp("shop", this::warmUpShops);
+        warmUp("shopType", this::warmUpShopTypes);
+        warmUp("shopGeo", shopService::loadShopGeo);
+        warmUp("shopName", shopNameIndex::rebuild);
+        warmUp("shopList", shopService::loadShopList);
+        warmUp("seckillStock", this::warmUpSeckillStock);
+        log.info("缓存预热完成，耗时{}ms", System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 执行一个预热阶段，失败只记录日志，不影响启动
+     */
+    private void warmUp(String stage, Callable<Integer> task) {
+        long begin = System.currentTimeMillis();
+        Map<String, Object> result = new LinkedHashMap<>();
+        try {
+            result.put("count", task.call());
+            result.put("success", true);
+        } catch (Exception e) {
+            log.error("缓存预热阶段{}失败", stage, e);
+            result.put("success", false);
+        }
+        long cost = System.currentTimeMillis() - begin;
+        result.put("costMillis", cost);
+        report.put(stage, result);
+        log.info("缓存预热阶段{}：{}", stage, result);
+    }
+
+    /**
+     * 按销量、评分从高到低分页加载店铺，多页并发写入缓存
+     * @return 写入的店铺数量
+     */
+    private Integer warmUpShops() throws InterruptedException {
+        int pages = (shopTopN + pageSize - 1) / pageSize;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, pages)));
+        AtomicInteger loaded = new AtomicInteger();
+        AtomicLong dbMillis = new AtomicLong();
+        AtomicLong redisMillis = new AtomicLong();
+        try {
+            List<Future<?>> futures = new ArrayList<>(pages);
+            for (int i = 1; i <= pages; i++) {
+                long current = i;
+                futures.add(executor.submit(() -> {
+                    //1.查询一页，不查询总数
+                    long begin = System.currentTimeMillis();
+                    int size = (int) Math.min(pageSize, shopTopN - (current - 1) * pageSize);
+                    List<Shop> shops = shopService.query()
+                            .orderByDesc("sold").orderByDesc("score").orderByAsc("id")
+                            .page(new Page<>(current, size, false))
+                            .getRecords();
+                    long loadedAt = System.currentTimeMillis();
+                    dbMillis.addAndGet(loadedAt - begin);
+                    if (shops.isEmpty()) {
+                        return;
+                    }
+                    //2.按查询接口读取的格式写入，普通缓存使用管道
+                    shopService.cacheShops(shops);
+                    redisMillis.addAndGet(System.currentTimeMillis() - loadedAt);
+                    log.debug("缓存预热店铺进度：{}/{}", loaded.addAndGet(shops.size()), shopTopN);
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.error("缓存预热店铺分页失败", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("缓存预热店铺：数据库耗时{}ms，Redis耗时{}ms（各线程累计）", dbMillis.get(), redisMillis.get());
+        return loaded.get();
+    }
+
+    /**
+     * 店铺类型列表沿用查询接口的缓存格式，同时通知各节点重新加载快照
+     * @return 写入的类型数量
+     */
+    private Integer warmUpShopTypes() {
+        shopTypeService.refreshTypeList();
+        Object data = shopTypeService.queryTypeList().getData();
+        return data instanceof Collection ? ((Collection<?>) data).size() : 0;
+    }
+
+    /**
+     * 进行中秒杀券的库存，只补充Redis中缺失的key，避免覆盖正在扣减的库存
+     * @return 补充的库存数量
+     */
+    private Integer warmUpSeckillStock() {
+        int count = 0;
+        long current = 1;
+        while (true) {
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .gt("end_time", LocalDateTime.now())
+                    .orderByAsc("voucher_id")
+                    .page(new Page<>(current++, pageSize, false))
+                    .getRecords();
+            if (vouchers.isEmpty()) {
+                break;
+            }
+            //分段的秒杀券库存在各段中，跳过
+            List<String> segments = stringRedisTemplate.opsForValue().multiGet(vouchers.stream()
+                    .map(voucher -> SECKILL_SEGMENTS_KEY + voucher.getVoucherId()).collect(Collectors.toList()));
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < vouchers.size(); i++) {
+                    if (segments != null && segments.get(i) != null) {
+                        continue;
+                    }
+                    SeckillVoucher voucher = vouchers.get(i);
+                    connection.set(SeckillStockClient.stockKey(voucher.getVoucherId(), 1, 0).getBytes(StandardCharsets.UTF_8),
+                            voucher.getStock().toString().getBytes(StandardCharsets.UTF_8),
+                            Expiration.persistent(), RedisStringCommands.SetOption.ifAbsent());
+                }
+                return null;
+            });
+            count += vouchers.size();
+            if (vouchers.size() < pageSize) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 最近一次预热各阶段的数量与耗时
+     * @return
+     */
+    public Map<String, Map<String, Object>> getReport() {
+        return new TreeMap<>(report);
+    }
+}
@@ -0,0 +1,177 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 带并发上限的熔断器
+ * 按最近windowSize次调用的失败率（慢调用也算失败）判断是否打开；打开后openMillis内直接失败，
+ * 之后放行一次试探调用，成功则关闭，失败则重新打开
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final String name;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openMillis;
+    //超过该耗时的调用视为失败，0表示不统计慢调用
+    private final long slowCallMillis;
+    //同时执行的调用上限，不大于0表示不限制
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    //哪些异常计为失败
+    private final Predicate<Throwable> failurePredicate;
+
+    //最近的调用结果，true为失败
+    private final boolean[] outcomes;
+    private int index;
+    private int calls;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold, long openMillis,
+                          long slowCallMillis, int maxConcurrency, Predicate<Throwable> failurePredicate) {
+        this.name = name;
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openMillis;
+        this.slowCallMillis = slowCallMillis;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = maxConcurrency > 0 ? new Semaphore(maxConcurrency) : null;
+        this.failurePredicate = failurePredicate;
+        this.outcomes = new boolean[windowSize];
+    }
+
+    /**
+     * 在熔断器保护下执行调用
+     * @param call
+     * @return 调用结果
+     * @throws CircuitBreakerOpenException 熔断器打开或并发已满
+     */
+    public <T> T execute(Supplier<T> call) {
+        //1.并发上限
+        if (permits != null && !permits.tryAcquire()) {
+            throw new CircuitBreakerOpenException(name, name + "并发已满");
+        }
+        try {
+            //2.熔断状态
+            if (!acquire()) {
+                throw new CircuitBreakerOpenException(name, name + "已熔断");
+            }
+            long begin = System.currentTimeMillis();
+            boolean recorded = false;
+            try {
+                T result = call.get();
+                recorded = true;
+                record(slowCallMillis > 0 && System.currentTimeMillis() - begin > slowCallMillis);
+                return result;
+            } catch (RuntimeException e) {
+                recorded = true;
+                record(failurePredicate.test(e));
+                throw e;
+            } finally {
+                //抛出Error时没有记录结果，释放试探名额，避免一直处于半开状态
+                if (!recorded) {
+                    releaseTrial();
+                }
+            }
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    private synchronized boolean acquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openMillis) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                return false;
+            }
+            trialInFlight = true;
+        }
+        return true;
+    }
+
+    private synchronized void releaseTrial() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    private synchronized void record(boolean failure) {
+        if (state == State.HALF_OPEN) {
+            //试探调用的结果决定关闭或重新打开
+            trialInFlight = false;
+            if (failure) {
+                open();
+            } else {
+                state = State.CLOSED;
+                reset();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+        if (calls == windowSize) {
+            if (outcomes[index]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        outcomes[index] = failure;
+        if (failure) {
+            failures++;
+        }
+        index = (index + 1) % windowSize;
+        if (calls >= minimumCalls && (double) failures / calls >= failureRateThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        reset();
+    }
+
+    private void reset() {
+        index = 0;
+        calls = 0;
+        failures = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 当前正在执行的调用数
+     * @return
+     */
+    public int getActiveCalls() {
+        return permits == null ? 0 : maxConcurrency - permits.availablePermits();
+    }
+}
@@ -0,0 +1,18 @@
+package com.hmdp.utils;
+
+/**
+ * 熔断器打开或并发已满时快速失败
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    private final String breakerName;
+
+    public CircuitBreakerOpenException(String breakerName, String message) {
+        super(message);
+        this.breakerName = breakerName;
+    }
+
+    public String getBreakerName() {
+        return breakerName;
+    }
+}
@@ -0,0 +1,245 @@
+package com.hmdp.utils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的网格空间索引
+ * 按固定经纬度大小把坐标划分为网格，每个类型的店铺按(网格, id)排序后保存在基本类型数组中；
+ * 查询从所在网格开始逐圈向外扫描，当下一圈的最近距离超过半径或已找到的第count个结果时停止，
+ * 带游标翻页时在内存中跳过游标之前的店铺，不需要像GEORADIUS那样重新取出前几页
+ * 写入时复制数组并整体替换，查询无锁；店铺写入频率很低，复制的开销可以接受
+ */
+public class GridShopGeoIndex implements ShopGeoIndex {
+
+    //与Redis GEO一致的地球半径，保证两种索引计算的距离相同
+    private static final double EARTH_RADIUS = 6372797.560856;
+
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+    //网格边长（度）
+    private final double cellDegrees;
+
+    private final Map<Long, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    public GridShopGeoIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+    }
+
+    @Override
+    public synchronized void load(Map<Long, List<Location>> locations) {
+        Map<Long, Snapshot> fresh = new HashMap<>(locations.size() * 2);
+        locations.forEach((typeId, list) -> fresh.put(typeId, build(list)));
+        snapshots.keySet().retainAll(fresh.keySet());
+        snapshots.putAll(fresh);
+    }
+
+    @Override
+    public synchronized void put(Long typeId, Location location) {
+        Snapshot snapshot = snapshots.get(typeId);
+        List<Location> list = snapshot == null ? new ArrayList<>(1) : snapshot.toList(location.getId());
+        list.add(location);
+        snapshots.put(typeId, build(list));
+    }
+
+    @Override
+    public synchronized void remove(Long typeId, Long shopId) {
+        Snapshot snapshot = snapshots.get(typeId);
+        if (snapshot == null) {
+            return;
+        }
+        List<Location> list = snapshot.toList(shopId);
+        if (list.size() < snapshot.ids.length) {
+            snapshots.put(typeId, build(list));
+        }
+    }
+
+    @Override
+    public List<Hit> search(Long typeId, double x, double y, double radiusMeters, int count, Hit after) {
+        Snapshot s = snapshots.get(typeId);
+        if (s == null || s.ids.length == 0 || count <= 0) {
+            return Collections.emptyList();
+        }
+        int cx = cellX(x);
+        int cy = cellY(y);
+        //按(距离, id)倒序的大顶堆，保留最近的count个
+        PriorityQueue<Hit> heap = new PriorityQueue<>(count + 1, ORDER.reversed());
+        //1.查询点在所有网格之外时，直接从最近的一圈开始
+        int firstRing = Math.max(0, Math.max(Math.max(cx - s.maxCx, s.minCx - cx), Math.max(cy - s.maxCy, s.minCy - cy)));
+        int lastRing = Math.max(Math.max(cx - s.minCx, s.maxCx - cx), Math.max(cy - s.minCy, s.maxCy - cy));
+        for (int r = firstRing; r <= lastRing; r++) {
+            //2.这一圈的最近距离已超出半径或超过第count个结果，后面的圈不可能更近
+            double bound = ringMinDistance(y, r);
+            if (radiusMeters > 0 && bound > radiusMeters) {
+                break;
+            }
+            if (heap.size() == count && bound > heap.peek().getDistance()) {
+                break;
+            }
+            //3.扫描这一圈中位于索引范围内的网格
+            int fromX = Math.max(cx - r, s.minCx);
+            int toX = Math.min(cx + r, s.maxCx);
+            int fromY = Math.max(cy - r, s.minCy);
+            int toY = Math.min(cy + r, s.maxCy);
+            for (int gy = fromY; gy <= toY; gy++) {
+                boolean edgeRow = gy == cy - r || gy == cy + r;
+                if (edgeRow) {
+                    for (int gx = fromX; gx <= toX; gx++) {
+                        scan(s, key(gx, gy), x, y, radiusMeters, count, after, heap);
+                    }
+                } else {
+                    if (cx - r >= s.minCx) {
+                        scan(s, key(cx - r, gy), x, y, radiusMeters, count, after, heap);
+                    }
+                    if (r > 0 && cx + r <= s.maxCx) {
+                        scan(s, key(cx + r, gy), x, y, radiusMeters, count, after, heap);
+                    }
+                }
+            }
+        }
+        List<Hit> hits = new ArrayList<>(heap);
+        hits.sort(ORDER);
+        return hits;
+    }
+
+    /**
+     * 检查一个网格中的店铺，符合条件的放入堆中
+     */
+    private static void scan(Snapshot s, long cell, double x, double y, double radiusMeters, int count,
+                             Hit after, PriorityQueue<Hit> heap) {
+        int i = lowerBound(s.cells, cell);
+        for (; i < s.cells.length && s.cells[i] == cell; i++) {
+            double distance = distance(x, y, s.xs[i], s.ys[i]);
+            if (radiusMeters > 0 && distance > radiusMeters) {
+                continue;
+            }
+            if (heap.size() == count && distance > heap.peek().getDistance()) {
+                continue;
+            }
+            Hit hit = new Hit(s.ids[i], distance);
+            if (!hit.isAfter(after)) {
+                continue;
+            }
+            if (heap.size() < count) {
+                heap.add(hit);
+            } else if (ORDER.compare(hit, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(hit);
+            }
+        }
+    }
+
+    /**
+     * 第r圈网格中的点到查询点的最近距离的下界
+     * 经度方向的网格宽度随纬度减小，按这一圈能到达的最高纬度计算
+     */
+    private double ringMinDistance(double y, int r) {
+        if (r <= 1) {
+            return 0;
+        }
+        double maxLat = Math.min(90, Math.abs(y) + (r + 1) * cellDegrees);
+        return (r - 1) * cellDegrees * METERS_PER_DEGREE * Math.cos(Math.toRadians(maxLat));
+    }
+
+    private Snapshot build(List<Location> list) {
+        Location[] sorted = list.toArray(new Location[0]);
+        long[] cells = new long[sorted.length];
+        Arrays.sort(sorted, Comparator.comparingLong((Location l) -> key(cellX(l.getX()), cellY(l.getY())))
+                .thenComparingLong(Location::getId));
+        long[] ids = new long[sorted.length];
+        double[] xs = new double[sorted.length];
+        double[] ys = new double[sorted.length];
+        int minCx = Integer.MAX_VALUE, maxCx = Integer.MIN_VALUE, minCy = Integer.MAX_VALUE, maxCy = Integer.MIN_VALUE;
+        for (int i = 0; i < sorted.length; i++) {
+            Location location = sorted[i];
+            int cx = cellX(location.getX());
+            int cy = cellY(location.getY());
+            cells[i] = key(cx, cy);
+            ids[i] = location.getId();
+            xs[i] = location.getX();
+            ys[i] = location.getY();
+            minCx = Math.min(minCx, cx);
+            maxCx = Math.max(maxCx, cx);
+            minCy = Math.min(minCy, cy);
+            maxCy = Math.max(maxCy, cy);
+        }
+        return new Snapshot(cells, ids, xs, ys, minCx, maxCx, minCy, maxCy);
+    }
+
+    private int cellX(double x) {
+        return (int) Math.floor((x + 180) / cellDegrees);
+    }
+
+    private int cellY(double y) {
+        return (int) Math.floor((y + 90) / cellDegrees);
+    }
+
+    /**
+     * 网格编号，按纬度行优先排序
+     */
+    private static long key(int cx, int cy) {
+        return ((long) cy << 32) | (cx & 0xffffffffL);
+    }
+
+    private static int lowerBound(long[] cells, long cell) {
+        int low = 0, high = cells.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cells[mid] < cell) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 球面距离（米），与Redis GEO的计算方式一致
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    /**
+     * 某个类型的只读索引
+     */
+    private static final class Snapshot {
+        private final long[] cells;
+        private final long[] ids;
+        private final double[] xs;
+        private final double[] ys;
+        private final int minCx;
+        private final int maxCx;
+        private final int minCy;
+        private final int maxCy;
+
+        private Snapshot(long[] cells, long[] ids, double[] xs, double[] ys, int minCx, int maxCx, int minCy, int maxCy) {
+            this.cells = cells;
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+            this.minCx = minCx;
+            this.maxCx = maxCx;
+            this.minCy = minCy;
+            this.maxCy = maxCy;
+        }
+
+        /**
+         * 取出除指定店铺外的全部坐标
+         */
+        private List<Location> toList(long excludeId) {
+            List<Location> list = new ArrayList<>(ids.length + 1);
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] != excludeId) {
+                    list.add(new Location(ids[i], xs[i], ys[i]));
+                }
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.hmdp.utils.RedisConstants.CACHE_HOT_KEY_CHANNEL;
+
+/**
+ * 热点key探测
+ * 按秒分桶的滑动窗口统计每个key的访问次数，超过阈值的key成为热点并广播到所有节点，
+ * 各节点为热点key保存短有效期的本地副本；访问量降到阈值一半以下且超过保持时间后降级
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private LocalCache localCache;
+
+    @Value("${hmdp.cache.hot-key.enabled:true}")
+    private boolean enabled;
+
+    //滑动窗口长度
+    @Value("${hmdp.cache.hot-key.window-seconds:5}")
+    private int windowSeconds;
+
+    //窗口内访问次数达到该值即成为热点
+    @Value("${hmdp.cache.hot-key.threshold:1000}")
+    private long threshold;
+
+    //成为热点后至少保持的时间
+    @Value("${hmdp.cache.hot-key.hold-seconds:30}")
+    private long holdSeconds;
+
+    //本地副本有效期，决定热点数据最多落后Redis多久
+    @Value("${hmdp.cache.hot-key.replica-ttl-millis:3000}")
+    private long replicaTtlMillis;
+
+    //最多统计的key数量，超过后不再统计新key，直到冷key被清理
+    @Value("${hmdp.cache.hot-key.max-tracked:10000}")
+    private int maxTracked;
+
+    //最多同时存在的热点数量
+    @Value("${hmdp.cache.hot-key.max-hot:200}")
+    private int maxHot;
+
+    private final ConcurrentHashMap<String, SlidingWindow> windows = new ConcurrentHashMap<>();
+
+    //热点key -> 保持到的时间戳
+    private final ConcurrentHashMap<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        //订阅其他节点发现的热点
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> markHot(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_HOT_KEY_CHANNEL)
+        );
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-hot-key");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::cleanUp, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 记录一次访问，达到阈值时升级为热点并广播
+     * @param key
+     */
+    public void record(String key) {
+        if (!enabled) {
+            return;
+        }
+        SlidingWindow window = windows.get(key);
+        if (window == null) {
+            if (windows.size() >= maxTracked) {
+                return;
+            }
+            window = windows.computeIfAbsent(key, k -> new SlidingWindow(windowSeconds));
+        }
+        long second = System.currentTimeMillis() / 1000;
+        long count = window.add(second);
+        if (count < threshold) {
+            return;
+        }
+        //已是热点且剩余保持时间超过一半时不重复广播
+        long now = System.currentTimeMillis();
+        Long hotUntil = hotKeys.get(key);
+        if (hotUntil != null && hotUntil - now > TimeUnit.SECONDS.toMillis(holdSeconds) / 2) {
+            return;
+        }
+        if (hotUntil == null && hotKeys.size() >= maxHot) {
+            return;
+        }
+        markHot(key);
+        stringRedisTemplate.convertAndSend(CACHE_HOT_KEY_CHANNEL, key);
+        if (hotUntil == null) {
+            log.info("发现热点key：{}，{}秒内访问{}次", key, windowSeconds, count);
+        }
+    }
+
+    private void markHot(String key) {
+        hotKeys.put(key, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(holdSeconds));
+    }
+
+    public boolean isHot(String key) {
+        return enabled && hotKeys.containsKey(key);
+    }
+
+    public long getReplicaTtlMillis() {
+        return replicaTtlMillis;
+    }
+
+    /**
+     * 清理没有访问的窗口，降级已冷却的热点并删除其本地副本
+     */
+    private void cleanUp() {
+        try {
+            long now = System.currentTimeMillis();
+            long second = now / 1000;
+            windows.entrySet().removeIf(entry -> entry.getValue().sum(second) == 0);
+            for (Map.Entry<String, Long> entry : hotKeys.entrySet()) {
+                String key = entry.getKey();
+                SlidingWindow window = windows.get(key);
+                long count = window == null ? 0 : window.sum(second);
+                if (entry.getValue() < now && count < threshold / 2) {
+                    hotKeys.remove(key, entry.getValue());
+                    localCache.evictReplica(key);
+                    log.info("热点key降级：{}", key);
+                }
+            }
+        } catch (Exception e) {
+            log.error("清理热点key统计失败", e);
+        }
+    }
+
+    /**
+     * 当前的热点key，按本节点窗口内访问次数从高到低排列
+     * @return
+     */
+    public List<Map<String, Object>> getHotKeys() {
+        long now = System.currentTimeMillis();
+        long second = now / 1000;
+        List<Map<String, Object>> result = new ArrayList<>(hotKeys.size());
+        hotKeys.forEach((key, hotUntil) -> {
+            SlidingWindow window = windows.get(key);
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", key);
+            item.put("count", window == null ? 0L : window.sum(second));
+            item.put("holdMillis", Math.max(0L, hotUntil - now));
+            result.add(item);
+        });
+        result.sort((a, b) -> Long.compare((Long) b.get("count"), (Long) a.get("count")));
+        return result;
+    }
+
+    /**
+     * 按秒分桶的滑动窗口，桶被复用时清零，并发下的计数为近似值
+     */
+    private static class SlidingWindow {
+        private final AtomicLongArray counts;
+        private final AtomicLongArray seconds;
+
+        private SlidingWindow(int size) {
+            counts = new AtomicLongArray(size);
+            seconds = new AtomicLongArray(size);
+        }
+
+        private long add(long second) {
+            int index = (int) (second % counts.length());
+            long bucketSecond = seconds.get(index);
+            if (bucketSecond != second && seconds.compareAndSet(index, bucketSecond, second)) {
+                counts.set(index, 0);
+            }
+            counts.incrementAndGet(index);
+            return sum(second);
+        }
+
+        private long sum(long second) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                if (second - seconds.get(i) < counts.length()) {
+                    total += counts.get(i);
+                }
+            }
+            return total;
+        }
+    }
+}
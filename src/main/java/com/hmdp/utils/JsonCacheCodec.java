@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * JSON编解码器，与原有的JSONUtil格式一致
+ * 普通数据与逻辑过期数据可以互相读取：按普通数据读取时取出data，按逻辑过期读取普通数据时视为已过期
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    private static final String FIELD_DATA = "data";
+
+    private static final String FIELD_EXPIRE_TIME = "expireTime";
+
+    //普通数据按逻辑过期读取时使用的过期时间，读取后立即重建
+    private static final LocalDateTime EXPIRED = LocalDateTime.ofInstant(Instant.EPOCH, ZoneId.systemDefault());
+
+    @Override
+    public boolean supports(byte[] bytes) {
+        //JSON文本以 { [ " 开头
+        byte first = bytes[0];
+        return first == '{' || first == '[' || first == '"';
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> clazz) {
+        JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        if (isLogical(json)) {
+            return json.getJSONObject(FIELD_DATA).toBean(clazz);
+        }
+        return json.toBean(clazz);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(RedisData redisData) {
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> RedisData decodeWithExpire(byte[] bytes, Class<T> clazz) {
+        JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        if (!isLogical(json)) {
+            RedisData redisData = new RedisData();
+            redisData.setExpireTime(EXPIRED);
+            redisData.setData(json.toBean(clazz));
+            return redisData;
+        }
+        RedisData redisData = json.toBean(RedisData.class);
+        redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), clazz));
+        return redisData;
+    }
+
+    /**
+     * 逻辑过期数据由data与expireTime组成
+     */
+    private static boolean isLogical(JSONObject json) {
+        return json.get(FIELD_DATA) instanceof JSONObject && json.containsKey(FIELD_EXPIRE_TIME);
+    }
+}
@@ -0,0 +1,180 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.cache.impl.TimedCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 进程内一级缓存（L1），位于Redis之前
+ * 容量与有效期均有上限，失效通过Redis发布订阅广播到所有节点
+ * 另外保留一份只按容量淘汰的旧数据，供重建失败或超时时兜底
+ * 热点key的副本单独保存，不受一级缓存开关与容量限制
+ */
+@Slf4j
+@Component
+public class LocalCache {
+
+    //空值占位，表示数据库中不存在该数据
+    public static final Object NULL_VALUE = new Object();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.cache.local.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.local.maximum-size:1000}")
+    private int maximumSize;
+
+    @Value("${hmdp.cache.local.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    private LRUCache<String, Object> cache;
+
+    private LRUCache<String, Object> staleCache;
+
+    //热点key的本地副本，数量由HotKeyDetector控制
+    private final TimedCache<String, Object> replicas = CacheUtil.newTimedCache(0);
+
+    @PostConstruct
+    private void init(){
+        cache = CacheUtil.newLRUCache(maximumSize, TimeUnit.SECONDS.toMillis(ttlSeconds));
+        staleCache = CacheUtil.newLRUCache(maximumSize);
+        //订阅失效广播，收到后删除本地缓存
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> evict(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL)
+        );
+    }
+
+    /**
+     * 查询本地缓存
+     * @param key
+     * @return 未命中返回null，命中空值返回NULL_VALUE
+     */
+    public Object get(String key){
+        Object replica = replicas.get(key, false);
+        if(replica != null){
+            return replica;
+        }
+        if(!enabled){
+            return null;
+        }
+        return cache.get(key);
+    }
+
+    /**
+     * 写入本地缓存，使用默认有效期
+     * @param key
+     * @param value
+     */
+    public void put(String key, Object value){
+        if(!enabled){
+            return;
+        }
+        cache.put(key, value == null ? NULL_VALUE : value);
+        staleCache.put(key, value == null ? NULL_VALUE : value);
+    }
+
+    /**
+     * 写入本地缓存，有效期不超过默认有效期
+     * @param key
+     * @param value
+     * @param time
+     * @param unit
+     */
+    public void put(String key, Object value, Long time, TimeUnit unit){
+        if(!enabled){
+            return;
+        }
+        long timeout = Math.min(unit.toMillis(time), TimeUnit.SECONDS.toMillis(ttlSeconds));
+        cache.put(key, value == null ? NULL_VALUE : value, timeout);
+        staleCache.put(key, value == null ? NULL_VALUE : value);
+    }
+
+    /**
+     * 写入热点key的本地副本
+     * @param key
+     * @param value
+     * @param ttlMillis 副本有效期
+     */
+    public void replicate(String key, Object value, long ttlMillis){
+        replicas.put(key, value == null ? NULL_VALUE : value, ttlMillis);
+    }
+
+    /**
+     * 删除热点key的本地副本
+     * @param key
+     */
+    public void evictReplica(String key){
+        replicas.remove(key);
+    }
+
+    /**
+     * 查询可能已过期的旧数据
+     * @param key
+     * @return 不存在返回null，空值返回NULL_VALUE
+     */
+    public Object getStale(String key){
+        if(!enabled){
+            return null;
+        }
+        Object value = cache.get(key, false);
+        return value != null ? value : staleCache.get(key, false);
+    }
+
+    /**
+     * 仅删除本节点的本地缓存
+     * @param key
+     */
+    public void evict(String key){
+        replicas.remove(key);
+        cache.remove(key);
+        staleCache.remove(key);
+    }
+
+    /**
+     * 删除本地缓存，并广播到所有节点
+     * @param key
+     */
+    public void invalidate(String key){
+        evict(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    public int size(){
+        return cache.size();
+    }
+
+    public int replicaSize(){
+        return replicas.size();
+    }
+
+    public long getHitCount(){
+        return cache.getHitCount();
+    }
+
+    public long getMissCount(){
+        return cache.getMissCount();
+    }
+}
@@ -0,0 +1,202 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_ACCESS_INDEX_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_EXPIRE_INDEX_KEY;
+
+/**
+ * 逻辑过期数据的后台提前刷新
+ * CacheClient写入逻辑过期数据时，把key和过期时间记录在有序集合中；
+ * 本任务每秒取出即将过期的key，按每秒上限提交重建，使数据库压力保持平稳；
+ * 取出的key先推迟到退避时间之后，重建成功时再写入新的过期时间，失败或跳过的key不会一直占住队首；
+ * 近期没有读取的key不再刷新，等下次读取时由查询路径重建
+ */
+@Slf4j
+@Component
+public class LogicalExpireRefresher {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Value("${hmdp.cache.refresh-ahead.enabled:true}")
+    private boolean enabled;
+
+    //提前多久开始刷新
+    @Value("${hmdp.cache.refresh-ahead.lead-seconds:60}")
+    private long leadSeconds;
+
+    //每秒最多提交的刷新数量
+    @Value("${hmdp.cache.refresh-ahead.max-per-second:20}")
+    private int maxPerSecond;
+
+    //提交失败或重建失败后，多久再次尝试
+    @Value("${hmdp.cache.refresh-ahead.retry-backoff-seconds:10}")
+    private long retryBackoffSeconds;
+
+    //超过该时间没有读取的key不再提前刷新
+    @Value("${hmdp.cache.refresh-ahead.idle-seconds:600}")
+    private long idleSeconds;
+
+    //key前缀与对应的数据加载方式
+    private final Map<String, Registration<?, ?>> registrations = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder refreshedCount = new LongAdder();
+    private final LongAdder skippedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+
+    /**
+     * 注册一类逻辑过期数据，未注册前缀的key不会被刷新
+     * 只注册读取路径使用逻辑过期的前缀
+     * @param keyPrefix
+     * @param lockKeyPrefix
+     * @param idParser 从key中去掉前缀后的字符串解析出id
+     * @param dbFallBack
+     * @param time
+     * @param unit
+     */
+    public <R, ID> void register(String keyPrefix, String lockKeyPrefix, Function<String, ID> idParser,
+                                 Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
+        registrations.put(keyPrefix, new Registration<>(lockKeyPrefix, idParser, dbFallBack, time, unit));
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-refresh-ahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refreshDue, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 取出leadSeconds内将要过期的key，最早过期的优先，每次最多maxPerSecond个
+     */
+    private void refreshDue() {
+        try {
+            long now = System.currentTimeMillis();
+            long idleBefore = now - TimeUnit.SECONDS.toMillis(idleSeconds);
+            //1.清理长期没有读取的访问记录
+            stringRedisTemplate.opsForZSet().removeRangeByScore(CACHE_ACCESS_INDEX_KEY, 0, idleBefore);
+            //2.取出即将过期的key
+            long deadline = now + TimeUnit.SECONDS.toMillis(leadSeconds);
+            Set<String> keys = stringRedisTemplate.opsForZSet()
+                    .rangeByScore(CACHE_EXPIRE_INDEX_KEY, 0, deadline, 0, maxPerSecond);
+            if (keys == null || keys.isEmpty()) {
+                return;
+            }
+            long retryAt = now + TimeUnit.SECONDS.toMillis(retryBackoffSeconds);
+            for (String key : keys) {
+                //3.近期没有读取，不再跟踪
+                Double accessedAt = stringRedisTemplate.opsForZSet().score(CACHE_ACCESS_INDEX_KEY, key);
+                if (accessedAt == null || accessedAt < idleBefore) {
+                    untrack(key);
+                    droppedCount.increment();
+                    continue;
+                }
+                //4.先推迟到退避时间之后，重建成功时会覆盖为新的过期时间
+                stringRedisTemplate.opsForZSet().add(CACHE_EXPIRE_INDEX_KEY, key, retryAt);
+                if (refresh(key)) {
+                    refreshedCount.increment();
+                } else {
+                    skippedCount.increment();
+                }
+            }
+        } catch (Exception e) {
+            log.error("提前刷新逻辑过期缓存失败", e);
+        }
+    }
+
+    private void untrack(String key) {
+        stringRedisTemplate.opsForZSet().remove(CACHE_EXPIRE_INDEX_KEY, key);
+        cacheClient.forgetAccess(key);
+    }
+
+    private boolean refresh(String key) {
+        for (Map.Entry<String, Registration<?, ?>> entry : registrations.entrySet()) {
+            String keyPrefix = entry.getKey();
+            if (key.startsWith(keyPrefix)) {
+                return entry.getValue().refresh(keyPrefix, key.substring(keyPrefix.length()));
+            }
+        }
+        //没有对应的加载方式，不再跟踪
+        untrack(key);
+        return false;
+    }
+
+    /**
+     * 逻辑过期时间的分布与刷新统计
+     * @return
+     */
+    public Map<String, Object> getStats() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("tracked", stringRedisTemplate.opsForZSet().zCard(CACHE_EXPIRE_INDEX_KEY));
+        stats.put("expired", stringRedisTemplate.opsForZSet().count(CACHE_EXPIRE_INDEX_KEY, 0, now));
+        stats.put("expiringIn1m", countExpiring(now, TimeUnit.MINUTES.toMillis(1)));
+        stats.put("expiringIn5m", countExpiring(now, TimeUnit.MINUTES.toMillis(5)));
+        stats.put("expiringIn30m", countExpiring(now, TimeUnit.MINUTES.toMillis(30)));
+        stats.put("refreshed", refreshedCount.sum());
+        stats.put("skipped", skippedCount.sum());
+        stats.put("dropped", droppedCount.sum());
+        return stats;
+    }
+
+    private Long countExpiring(long now, long window) {
+        return stringRedisTemplate.opsForZSet().count(CACHE_EXPIRE_INDEX_KEY, now, now + window);
+    }
+
+    private class Registration<R, ID> {
+        private final String lockKeyPrefix;
+        private final Function<String, ID> idParser;
+        private final Function<ID, R> dbFallBack;
+        private final Long time;
+        private final TimeUnit unit;
+
+        private Registration(String lockKeyPrefix, Function<String, ID> idParser, Function<ID, R> dbFallBack, Long time, TimeUnit unit) {
+            this.lockKeyPrefix = lockKeyPrefix;
+            this.idParser = idParser;
+            this.dbFallBack = dbFallBack;
+            this.time = time;
+            this.unit = unit;
+        }
+
+        private boolean refresh(String keyPrefix, String idStr) {
+            ID id = idParser.apply(idStr);
+            return cacheClient.refreshLogicalExpire(keyPrefix, lockKeyPrefix, id, dbFallBack, time, unit);
+        }
+    }
+}
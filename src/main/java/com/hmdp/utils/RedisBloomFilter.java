@@ -0,0 +1,193 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 布隆过滤器
+ * 位数组保存在内存中，同时以相同的位序（与Redis SETBIT一致）镜像到Redis的bitmap
+ * 重建期间新增的元素同时写入新旧两个位数组，替换后不会丢失
+ */
+public class RedisBloomFilter {
+
+    private final String name;
+
+    private final int numBits;
+
+    private final int numHashes;
+
+    private volatile AtomicLongArray bits;
+
+    //重建中的位数组，不在重建时为null
+    private volatile AtomicLongArray building;
+
+    /**
+     * @param name 过滤器名称
+     * @param expectedInsertions 预计元素数量
+     * @param fpp 期望误判率
+     */
+    public RedisBloomFilter(String name, long expectedInsertions, double fpp) {
+        this.name = name;
+        this.numBits = optimalNumOfBits(expectedInsertions, fpp);
+        this.numHashes = optimalNumOfHashes(expectedInsertions, numBits);
+        this.bits = new AtomicLongArray(arrayLength());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    /**
+     * 计算元素对应的所有位下标
+     * @param id
+     * @return
+     */
+    public long[] offsets(Object id) {
+        //双重哈希：用一个64位哈希的高低32位模拟k个哈希函数
+        long hash64 = MurmurHash.hash64(String.valueOf(id));
+        int hash1 = (int) hash64;
+        int hash2 = (int) (hash64 >>> 32);
+        long[] offsets = new long[numHashes];
+        for (int i = 1; i <= numHashes; i++) {
+            int combinedHash = hash1 + i * hash2;
+            if (combinedHash < 0) {
+                combinedHash = ~combinedHash;
+            }
+            offsets[i - 1] = combinedHash % numBits;
+        }
+        return offsets;
+    }
+
+    /**
+     * 判断元素是否可能存在，返回false时一定不存在
+     * @param id
+     * @return
+     */
+    public boolean mightContain(Object id) {
+        AtomicLongArray current = bits;
+        for (long offset : offsets(id)) {
+            if ((current.get((int) (offset >>> 6)) & (1L << offset)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 仅在内存中添加元素
+     * @param id
+     */
+    public void putLocal(Object id) {
+        AtomicLongArray current = bits;
+        setBits(current, id);
+        AtomicLongArray next = building;
+        if (next != null) {
+            setBits(next, id);
+        }
+        //写入期间已完成替换，补写到新的位数组
+        if (bits != current) {
+            setBits(bits, id);
+        }
+    }
+
+    /**
+     * 重新构建内存中的位数组，构建完成前旧数据仍然可用
+     * 需在添加元素的事务提交后调用putLocal，开始重建之前的新增由loader加载，之后的新增同时写入新数组
+     * @param loader 逐个提供元素的加载器
+     */
+    public synchronized void rebuild(Consumer<Consumer<Object>> loader) {
+        AtomicLongArray fresh = new AtomicLongArray(arrayLength());
+        building = fresh;
+        try {
+            loader.accept(id -> setBits(fresh, id));
+            bits = fresh;
+        } finally {
+            building = null;
+        }
+    }
+
+    /**
+     * 导出为Redis bitmap的字节格式（每个字节的最高位为低位下标）
+     * @return
+     */
+    public byte[] toBytes() {
+        AtomicLongArray current = bits;
+        byte[] bytes = new byte[(numBits + 7) >>> 3];
+        for (int i = 0; i < numBits; i++) {
+            if ((current.get(i >>> 6) & (1L << i)) != 0) {
+                bytes[i >>> 3] |= (byte) (0x80 >>> (i & 7));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 从Redis bitmap的字节格式加载位数组，读取期间收到的新增同时写入新数组
+     * @param source 读取Redis bitmap，不存在时返回null
+     * @return bitmap不存在时返回false，保留原位数组
+     */
+    public synchronized boolean loadBytes(Supplier<byte[]> source) {
+        AtomicLongArray fresh = new AtomicLongArray(arrayLength());
+        building = fresh;
+        try {
+            byte[] bytes = source.get();
+            if (bytes == null) {
+                return false;
+            }
+            int limit = Math.min(numBits, bytes.length << 3);
+            for (int i = 0; i < limit; i++) {
+                if ((bytes[i >>> 3] & (0x80 >>> (i & 7))) != 0) {
+                    setBit(fresh, i);
+                }
+            }
+            bits = fresh;
+            return true;
+        } finally {
+            building = null;
+        }
+    }
+
+    private void setBits(AtomicLongArray target, Object id) {
+        for (long offset : offsets(id)) {
+            setBit(target, offset);
+        }
+    }
+
+    private static void setBit(AtomicLongArray target, long offset) {
+        int index = (int) (offset >>> 6);
+        long mask = 1L << offset;
+        long old;
+        do {
+            old = target.get(index);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!target.compareAndSet(index, old, old | mask));
+    }
+
+    private int arrayLength() {
+        return (numBits + 63) >>> 6;
+    }
+
+    private static int optimalNumOfBits(long n, double p) {
+        //m = -n*ln(p) / (ln2)^2
+        long bits = (long) (-Math.max(n, 1) * Math.log(p) / (Math.log(2) * Math.log(2)));
+        return (int) Math.min(Math.max(bits, 64), Integer.MAX_VALUE - 63);
+    }
+
+    private static int optimalNumOfHashes(long n, long m) {
+        //k = m/n * ln2
+        return Math.max(1, (int) Math.round((double) m / Math.max(n, 1) * Math.log(2)));
+    }
+}
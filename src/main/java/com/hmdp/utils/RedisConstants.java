@@ -7,16 +7,48 @@ public class RedisConstants {
     public static final Long LOGIN_USER_TTL = 36000L;
     public static final Long CACHE_NULL_TTL = 2L;
 
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_SHOP_HASH_KEY = "cache:shop:hash:";
     public static final String CACHE_SHOPLIST_KEY = "cache:shoplist";
+    public static final Long CACHE_SHOPLIST_TTL = 30L;
+    public static final String CACHE_SHOPLIST_VERSION_KEY = "cache:shoplist:version";
+    public static final String CACHE_SHOPLIST_CHANNEL = "cache:shoplist:changed";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_EXPIRE_INDEX_KEY = "cache:expire:index";
+    public static final String CACHE_ACCESS_INDEX_KEY = "cache:access:index";
+    public static final String CACHE_HOT_KEY_CHANNEL = "cache:hotkey";
+
+    public static final String BLOOM_FILTER_KEY = "bloom:";
+    public static final String BLOOM_SYNC_CHANNEL = "bloom:sync";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_CACHE_OUTBOX_KEY = "lock:cache:outbox";
+    public static final String LOCK_SHOP_RANK_KEY = "lock:shop:rank";
+    public static final String LOCK_SHOP_LIST_KEY = "lock:shop:list";
+    public static final String LOCK_ORDER_PARTITIONS_KEY = "lock:order:partitions";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_SEGMENTS_KEY = "seckill:segments:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_GENERATION_KEY = "seckill:generation:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String ORDER_STREAM_KEY = "stream.orders";
+    public static final String ORDER_PARTITIONS_KEY = "seckill:partitions";
+    public static final String ORDER_RESIZING_KEY = "seckill:resizing";
+    public static final String ORDER_RESIZE_JOB_KEY = "seckill:resize:job:";
+    public static final Long ORDER_RESIZE_JOB_TTL = 24L;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_SYNC_CHANNEL = "shop:geo:sync";
+    public static final String SHOP_NAME_SYNC_CHANNEL = "shop:name:sync";
+    public static final String SHOP_TYPE_LIST_KEY = "shop:type:";
+    public static final String SHOP_TYPE_LIST_LOADED_KEY = "shop:type:loaded";
+    public static final String SHOP_RANK_KEY = "rank:shop:";
     public static final String USER_SIGN_KEY = "sign:";
 }
@@ -0,0 +1,147 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 基于Redis GEO的空间索引，每个类型一个GEO集合
+ * GEORADIUS只能从最近的店铺开始返回，带游标查询时需要重新取出游标之前的店铺再过滤
+ */
+public class RedisShopGeoIndex implements ShopGeoIndex {
+
+    //不限制半径时使用的半径，超过地球周长的一半
+    private static final double MAX_RADIUS_METERS = 2.1e7;
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public RedisShopGeoIndex(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 每个类型先写入本次加载独有的临时key，再RENAME替换，已删除或已改类型的店铺不会残留；
+     * 已没有店铺的类型删除其GEO集合
+     */
+    @Override
+    public void load(Map<Long, List<Location>> locations) {
+        //多个节点同时加载时互不影响
+        String tmpSuffix = ":tmp:" + UUID.randomUUID();
+        List<String> tmpKeys = new ArrayList<>(locations.size());
+        try {
+            //1.写入临时key
+            locations.forEach((typeId, list) -> {
+                String tmpKey = SHOP_GEO_KEY + typeId + tmpSuffix;
+                tmpKeys.add(tmpKey);
+                for (int i = 0; i < list.size(); i += LOAD_BATCH_SIZE) {
+                    List<RedisGeoCommands.GeoLocation<String>> batch = list.subList(i, Math.min(i + LOAD_BATCH_SIZE, list.size()))
+                            .stream()
+                            .map(location -> new RedisGeoCommands.GeoLocation<>(
+                                    String.valueOf(location.getId()), new Point(location.getX(), location.getY())))
+                            .collect(Collectors.toList());
+                    stringRedisTemplate.opsForGeo().add(tmpKey, batch);
+                }
+            });
+            //2.逐个替换
+            Set<String> live = new HashSet<>();
+            locations.forEach((typeId, list) -> {
+                String key = SHOP_GEO_KEY + typeId;
+                if (list.isEmpty()) {
+                    stringRedisTemplate.delete(key);
+                } else {
+                    stringRedisTemplate.rename(key + tmpSuffix, key);
+                    live.add(key);
+                }
+            });
+            //3.删除已没有店铺的类型
+            List<String> stale = typeKeys().stream().filter(key -> !live.contains(key)).collect(Collectors.toList());
+            if (!stale.isEmpty()) {
+                stringRedisTemplate.delete(stale);
+            }
+        } catch (RuntimeException e) {
+            stringRedisTemplate.delete(tmpKeys);
+            throw e;
+        }
+    }
+
+    /**
+     * 所有类型的GEO集合，按key末尾是否为类型id区分临时key与同步频道
+     */
+    private Set<String> typeKeys() {
+        Set<String> keys = stringRedisTemplate.execute((RedisCallback<Set<String>>) connection -> {
+            Set<String> result = new HashSet<>();
+            ScanOptions options = ScanOptions.scanOptions().match(SHOP_GEO_KEY + "*").count(LOAD_BATCH_SIZE).build();
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                    if (StrUtil.isNumeric(key.substring(SHOP_GEO_KEY.length()))) {
+                        result.add(key);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return result;
+        });
+        return keys == null ? Collections.emptySet() : keys;
+    }
+
+    @Override
+    public void put(Long typeId, Location location) {
+        stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + typeId,
+                new Point(location.getX(), location.getY()), String.valueOf(location.getId()));
+    }
+
+    @Override
+    public void remove(Long typeId, Long shopId) {
+        stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + typeId, shopId.toString());
+    }
+
+    @Override
+    public List<Hit> search(Long typeId, double x, double y, double radiusMeters, int count, Hit after) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        Circle circle = new Circle(new Point(x, y), new Distance(
+                radiusMeters > 0 ? radiusMeters : MAX_RADIUS_METERS, RedisGeoCommands.DistanceUnit.METERS));
+        //没有游标时取前count个即可，否则逐步扩大数量，直到游标之后有足够的店铺
+        int limit = after == null ? count : count * 2;
+        while (true) {
+            GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(
+                    SHOP_GEO_KEY + typeId, circle,
+                    RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(limit)
+            );
+            List<GeoResult<RedisGeoCommands.GeoLocation<String>>> content =
+                    results == null ? Collections.emptyList() : results.getContent();
+            List<Hit> hits = new ArrayList<>(content.size());
+            for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : content) {
+                Hit hit = new Hit(Long.parseLong(result.getContent().getName()), result.getDistance().getValue());
+                if (hit.isAfter(after)) {
+                    hits.add(hit);
+                }
+            }
+            if (hits.size() >= count || content.size() < limit) {
+                hits.sort(ORDER);
+                return hits.size() > count ? new ArrayList<>(hits.subList(0, count)) : hits;
+            }
+            limit *= 2;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_GENERATION_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SEGMENTS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀库存在Redis中的存储
+ * 库存不少于segment-min-stock时拆成K段：seckill:stock:{voucherId:i}，段数保存在seckill:segments:voucherId；
+ * 一人一单的集合按用户id同样拆成K个：seckill:order:{voucherId:i}，与同段的库存使用相同的哈希标签，不分段时哈希标签为{voucherId}
+ * 下单时每次执行seckill.lua只访问一段：先在用户所在段中判断一人一单并扣减；该段售罄时依次对其余段单独扣减库存，
+ * 扣减成功后把用户写入所在段的订单集合，已存在时归还库存。Redis Cluster下每次调用的key都在同一个槽中
+ * 段数在本地缓存，写入后不再变化，库存key不存在时脚本返回4，清除缓存后重试
+ * 售罄后在各节点本地标记，之后的请求不再访问Redis；补充库存时广播清除，标记到期后也会失效，防止漏收广播
+ * 每次补充库存时库存代数加1，下单前取本地已知的代数，售罄时按该代数标记；各节点记录已知的最新代数，忽略比它旧的售罄标记与消息，
+ * 避免补货之后才到达的售罄消息再次标记售罄
+ */
+@Slf4j
+@Component
+public class SeckillStockClient {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //热点秒杀券的库存分段数量，为1时不分段
+    @Value("${hmdp.seckill.stock-segments:1}")
+    private int segments;
+
+    //库存不少于该值时才分段
+    @Value("${hmdp.seckill.segment-min-stock:1000}")
+    private int segmentMinStock;
+
+    //本地售罄标记的有效时间
+    @Value("${hmdp.seckill.sold-out-ttl-seconds:60}")
+    private long soldOutTtlSeconds;
+
+    //优惠券id -> 售罄标记
+    private final Map<Long, SoldOut> soldOut = new ConcurrentHashMap<>();
+
+    //优惠券id -> 已知的最新库存代数
+    private final Map<Long, Long> generations = new ConcurrentHashMap<>();
+
+    //优惠券id -> 库存段数，段数写入后不再变化
+    private final Map<Long, Integer> segmentCounts = new ConcurrentHashMap<>();
+
+    //在一个库存段中判断一人一单并扣减的脚本
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+    }
+
+    @PostConstruct
+    private void init() {
+        //订阅其他节点的售罄与补货
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL)
+        );
+    }
+
+    /**
+     * 写入秒杀券的库存，按配置决定是否分段
+     * @param voucherId
+     * @param stock
+     * @return 分段数量
+     */
+    public int init(Long voucherId, int stock) {
+        int k = segments > 1 && stock >= segmentMinStock ? segments : 1;
+        segmentCounts.put(voucherId, k);
+        if (k == 1) {
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId, 1, 0), String.valueOf(stock));
+            return 1;
+        }
+        //前stock % k段各多分1个，段数最后写入，读到段数时各段已存在
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < k; i++) {
+                conn.set(stockKey(voucherId, k, i), String.valueOf(stock / k + (i < stock % k ? 1 : 0)));
+            }
+            conn.set(SECKILL_SEGMENTS_KEY + voucherId, String.valueOf(k));
+            return null;
+        });
+        return k;
+    }
+
+    /**
+     * 补充库存，分段时平均加到各段，之后增加库存代数，并通知所有节点清除旧代数的售罄标记
+     * @param voucherId
+     * @param amount
+     */
+    public void replenish(Long voucherId, int amount) {
+        String k = stringRedisTemplate.opsForValue().get(SECKILL_SEGMENTS_KEY + voucherId);
+        if (k == null) {
+            stringRedisTemplate.opsForValue().increment(stockKey(voucherId, 1, 0), amount);
+        } else {
+            int n = Integer.parseInt(k);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (int i = 0; i < n; i++) {
+                    long delta = amount / n + (i < amount % n ? 1 : 0);
+                    if (delta > 0) {
+                        conn.incrBy(stockKey(voucherId, n, i), delta);
+                    }
+                }
+                return null;
+            });
+        }
+        Long generation = stringRedisTemplate.opsForValue().increment(SECKILL_GENERATION_KEY + voucherId);
+        onAvailable(voucherId, generation);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, "available:" + voucherId + ":" + generation);
+    }
+
+    /**
+     * 库存段数，优先使用本地缓存
+     * @param voucherId
+     * @return 不分段时为1
+     */
+    public int segments(Long voucherId) {
+        return segmentCounts.computeIfAbsent(voucherId, id -> {
+            String k = stringRedisTemplate.opsForValue().get(SECKILL_SEGMENTS_KEY + id);
+            return k == null ? 1 : Integer.parseInt(k);
+        });
+    }
+
+    /**
+     * 库存key不存在时清除本地缓存的段数
+     * @param voucherId
+     */
+    public void evictSegments(Long voucherId) {
+        segmentCounts.remove(voucherId);
+    }
+
+    /**
+     * 扣减库存并记录一人一单，每次执行脚本只访问一段
+     * @param voucherId
+     * @param userId
+     * @return 结果为0成功，1库存不足，2已下过单，4本地段数已过期或库存不存在
+     */
+    public Reservation reserve(Long voucherId, Long userId) {
+        int k = segments(voucherId);
+        //下单前已知的库存代数，不会比判断售罄时的代数新
+        long generation = generations.getOrDefault(voucherId, 0L);
+        int home = (int) (userId % k);
+        String orderKey = orderKey(voucherId, k, home);
+        //1.用户所在段：一人一单与扣减库存在同一次调用中完成
+        int code = execute(stockKey(voucherId, k, home), orderKey, userId);
+        if (code != 1 || k == 1) {
+            return new Reservation(code, k, home, generation);
+        }
+        //2.所在段售罄，依次单独扣减其余段的库存
+        for (int i = 1; i < k; i++) {
+            int segment = (home + i) % k;
+            code = execute(stockKey(voucherId, k, segment), null, userId);
+            if (code == 4) {
+                return new Reservation(code, k, segment, generation);
+            }
+            if (code == 0) {
+                //3.把用户写入所在段的订单集合，已存在说明同一用户的请求同时扣减了其他段，归还库存
+                Long added = stringRedisTemplate.opsForSet().add(orderKey, userId.toString());
+                if (added == null || added == 0) {
+                    stringRedisTemplate.opsForValue().increment(stockKey(voucherId, k, segment));
+                    return new Reservation(2, k, segment, generation);
+                }
+                return new Reservation(0, k, segment, generation);
+            }
+        }
+        //4.所有段都已售罄
+        return new Reservation(1, k, home, generation);
+    }
+
+    private int execute(String stockKey, String orderKey, Long userId) {
+        List<String> keys = orderKey == null ? Collections.singletonList(stockKey) : Arrays.asList(stockKey, orderKey);
+        Long code = stringRedisTemplate.execute(SECKILL_SCRIPT, keys, userId.toString());
+        return code == null ? 4 : code.intValue();
+    }
+
+    /**
+     * 撤销扣减：归还库存并移除一人一单的记录，用于订单消息写入失败时
+     * @param voucherId
+     * @param userId
+     * @param reservation reserve成功时的返回值
+     */
+    public void release(Long voucherId, Long userId, Reservation reservation) {
+        int k = reservation.getSegments();
+        stringRedisTemplate.opsForValue().increment(stockKey(voucherId, k, reservation.getSegment()));
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, k, (int) (userId % k)), userId.toString());
+    }
+
+    /**
+     * 本地是否已标记售罄，不访问Redis
+     * @param voucherId
+     * @return
+     */
+    public boolean isSoldOut(Long voucherId) {
+        SoldOut mark = soldOut.get(voucherId);
+        if (mark == null) {
+            return false;
+        }
+        if (mark.expireAt < System.currentTimeMillis()) {
+            soldOut.remove(voucherId, mark);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 脚本返回库存不足后标记售罄，并通知所有节点
+     * @param voucherId
+     * @param generation 扣减前已知的库存代数
+     */
+    public void markSoldOut(Long voucherId, long generation) {
+        if (isSoldOut(voucherId) || !mark(voucherId, generation)) {
+            return;
+        }
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, "soldout:" + voucherId + ":" + generation);
+    }
+
+    /**
+     * 标记售罄，代数比已知的最新代数旧时忽略
+     * @return 是否已标记
+     */
+    private boolean mark(Long voucherId, long generation) {
+        //在同一个key上串行，与补货的清除互斥
+        boolean[] marked = new boolean[1];
+        generations.compute(voucherId, (id, known) -> {
+            if (known != null && generation < known) {
+                return known;
+            }
+            soldOut.put(id, new SoldOut(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(soldOutTtlSeconds), generation));
+            marked[0] = true;
+            return generation;
+        });
+        return marked[0];
+    }
+
+    /**
+     * 补充库存后清除旧代数的售罄标记
+     */
+    private void onAvailable(Long voucherId, long generation) {
+        generations.compute(voucherId, (id, known) -> {
+            if (known != null && generation < known) {
+                return known;
+            }
+            SoldOut mark = soldOut.get(id);
+            if (mark != null && mark.generation < generation) {
+                soldOut.remove(id, mark);
+            }
+            return generation;
+        });
+    }
+
+    private void onMessage(String message) {
+        try {
+            //消息格式 soldout:voucherId:generation 或 available:voucherId:generation
+            String[] parts = message.split(":");
+            Long voucherId = Long.valueOf(parts[1]);
+            long generation = Long.parseLong(parts[2]);
+            if ("soldout".equals(parts[0])) {
+                mark(voucherId, generation);
+            } else if ("available".equals(parts[0])) {
+                onAvailable(voucherId, generation);
+            }
+        } catch (Exception e) {
+            log.error("处理秒杀售罄消息失败：{}", message, e);
+        }
+    }
+
+    /**
+     * 剩余库存，分段时合并各段
+     * @param voucherId
+     * @return 库存不存在时返回null
+     */
+    public Integer remaining(Long voucherId) {
+        String k = stringRedisTemplate.opsForValue().get(SECKILL_SEGMENTS_KEY + voucherId);
+        if (k == null) {
+            String stock = stringRedisTemplate.opsForValue().get(stockKey(voucherId, 1, 0));
+            return stock == null ? null : Integer.valueOf(stock);
+        }
+        //各段在不同的槽中，逐个读取
+        int n = Integer.parseInt(k);
+        List<Object> stocks = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < n; i++) {
+                conn.get(stockKey(voucherId, n, i));
+            }
+            return null;
+        });
+        int total = 0;
+        for (Object stock : stocks) {
+            total += stock == null ? 0 : Integer.parseInt(stock.toString());
+        }
+        return total;
+    }
+
+    /**
+     * 库存key，分段时每段使用独立的哈希标签
+     * @param voucherId
+     * @param k 段数
+     * @param segment 段号，不分段时忽略
+     * @return
+     */
+    public static String stockKey(Long voucherId, int k, int segment) {
+        return SECKILL_STOCK_KEY + hashTag(voucherId, k, segment);
+    }
+
+    /**
+     * 一人一单的订单key，与同段的库存key使用相同的哈希标签
+     */
+    public static String orderKey(Long voucherId, int k, int segment) {
+        return SECKILL_ORDER_KEY + hashTag(voucherId, k, segment);
+    }
+
+    private static String hashTag(Long voucherId, int k, int segment) {
+        return k == 1 ? "{" + voucherId + "}" : "{" + voucherId + ":" + segment + "}";
+    }
+
+    /**
+     * 一次扣减的结果
+     */
+    public static class Reservation {
+        private final int code;
+        //扣减时的段数
+        private final int segments;
+        //扣减的段号
+        private final int segment;
+        //扣减前已知的库存代数，售罄时按该代数标记
+        private final long generation;
+
+        public Reservation(int code, int segments, int segment, long generation) {
+            this.code = code;
+            this.segments = segments;
+            this.segment = segment;
+            this.generation = generation;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public int getSegments() {
+            return segments;
+        }
+
+        public int getSegment() {
+            return segment;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+    }
+
+    /**
+     * 本地售罄标记
+     */
+    private static class SoldOut {
+        private final long expireAt;
+        //标记时的库存代数
+        private final long generation;
+
+        private SoldOut(long expireAt, long generation) {
+            this.expireAt = expireAt;
+            this.generation = generation;
+        }
+    }
+}
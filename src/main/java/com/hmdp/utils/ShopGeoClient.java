@@ -0,0 +1,269 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_SYNC_CHANNEL;
+
+/**
+ * 附近店铺查询入口
+ * 按配置使用Redis GEO（redis）或进程内网格索引（memory）；
+ * 索引在首次查询或预热时从数据库加载，店铺写入后通过广播同步到所有节点；
+ * 加载完成前与重建期间收到的写入先排队，替换索引后按顺序重放，不会被全量数据覆盖
+ */
+@Slf4j
+@Component
+public class ShopGeoClient {
+
+    public static final String ENGINE_MEMORY = "memory";
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    //空间索引实现：redis或memory
+    @Value("${hmdp.shop.geo.engine:redis}")
+    private String engine;
+
+    //进程内索引的网格边长（度）
+    @Value("${hmdp.shop.geo.cell-degrees:0.01}")
+    private double cellDegrees;
+
+    private ShopGeoIndex index;
+
+    private volatile boolean loaded;
+
+    //正在从数据库重建
+    private volatile boolean rebuilding;
+
+    //尚未写入索引的操作，按收到的顺序执行
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+    //写入索引与替换索引互斥
+    private final Object updateLock = new Object();
+
+    @PostConstruct
+    private void init() {
+        if (!isMemory()) {
+            index = new RedisShopGeoIndex(stringRedisTemplate);
+            loaded = true;
+            return;
+        }
+        index = new GridShopGeoIndex(cellDegrees);
+        //订阅其他节点的店铺写入
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(SHOP_GEO_SYNC_CHANNEL)
+        );
+    }
+
+    public boolean isMemory() {
+        return ENGINE_MEMORY.equalsIgnoreCase(engine);
+    }
+
+    /**
+     * 按id顺序分批读取全部店铺坐标，重建索引，可重复执行
+     * @return 写入的店铺数量
+     */
+    public synchronized int rebuild() {
+        rebuilding = true;
+        try {
+            return load();
+        } finally {
+            rebuilding = false;
+            drain();
+        }
+    }
+
+    /**
+     * 首次查询时加载，已加载时直接返回
+     */
+    private synchronized void ensureLoaded() {
+        if (!loaded) {
+            rebuild();
+        }
+    }
+
+    private int load() {
+        Map<Long, List<ShopGeoIndex.Location>> locations = new HashMap<>();
+        int count = 0;
+        long lastId = 0;
+        while (true) {
+            //1.按id读取下一批，只查询需要的字段
+            List<Shop> shops = shopMapper.selectPage(new Page<>(1, LOAD_BATCH_SIZE, false),
+                    new QueryWrapper<Shop>()
+                            .select("id", "type_id", "x", "y")
+                            .gt("id", lastId)
+                            .orderByAsc("id")
+            ).getRecords();
+            if (shops.isEmpty()) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            //2.按类型分组
+            for (Shop shop : shops) {
+                if (hasLocation(shop)) {
+                    locations.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>())
+                            .add(new ShopGeoIndex.Location(shop.getId(), shop.getX(), shop.getY()));
+                    count++;
+                }
+            }
+            if (shops.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+        }
+        synchronized (updateLock) {
+            index.load(locations);
+            loaded = true;
+        }
+        return count;
+    }
+
+    /**
+     * 写入索引，加载完成前或重建期间先排队
+     */
+    private void apply(Runnable operation) {
+        pending.add(operation);
+        if (loaded && !rebuilding) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        synchronized (updateLock) {
+            Runnable operation;
+            while ((operation = pending.poll()) != null) {
+                operation.run();
+            }
+        }
+    }
+
+    /**
+     * 新增店铺后写入索引
+     * @param shop
+     */
+    public void add(Shop shop) {
+        if (hasLocation(shop)) {
+            put(shop.getTypeId(), shop.getId(), shop.getX(), shop.getY());
+        }
+    }
+
+    /**
+     * 更新店铺后同步索引，类型变化时从原类型中移除
+     * @param old 更新前的店铺
+     * @param shop 更新的字段
+     */
+    public void move(Shop old, Shop shop) {
+        Long typeId = shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId();
+        Double x = shop.getX() != null ? shop.getX() : old.getX();
+        Double y = shop.getY() != null ? shop.getY() : old.getY();
+        if (old.getTypeId() != null && !old.getTypeId().equals(typeId)) {
+            remove(old.getTypeId(), old.getId());
+        }
+        if (typeId != null && x != null && y != null) {
+            put(typeId, old.getId(), x, y);
+        }
+    }
+
+    private void put(Long typeId, Long id, double x, double y) {
+        apply(() -> index.put(typeId, new ShopGeoIndex.Location(id, x, y)));
+        stringRedisTemplate.convertAndSend(SHOP_GEO_SYNC_CHANNEL, "put:" + typeId + ":" + id + ":" + x + ":" + y);
+    }
+
+    private void remove(Long typeId, Long id) {
+        apply(() -> index.remove(typeId, id));
+        stringRedisTemplate.convertAndSend(SHOP_GEO_SYNC_CHANNEL, "remove:" + typeId + ":" + id);
+    }
+
+    /**
+     * 重复收到本节点发出的消息时，再次写入的结果相同
+     * 使用Redis GEO时各节点共用同一份数据，再次写入用于补上其他节点全量加载期间被临时key替换掉的写入
+     */
+    private void onMessage(String message) {
+        try {
+            String[] parts = message.split(":");
+            if ("put".equals(parts[0])) {
+                ShopGeoIndex.Location location = new ShopGeoIndex.Location(
+                        Long.parseLong(parts[2]), Double.parseDouble(parts[3]), Double.parseDouble(parts[4]));
+                apply(() -> index.put(Long.valueOf(parts[1]), location));
+            } else if ("remove".equals(parts[0])) {
+                apply(() -> index.remove(Long.valueOf(parts[1]), Long.valueOf(parts[2])));
+            }
+        } catch (Exception e) {
+            log.error("处理店铺坐标同步消息失败：{}", message, e);
+        }
+    }
+
+    /**
+     * 查询距离最近的店铺
+     * @param typeId
+     * @param x 经度
+     * @param y 纬度
+     * @param radiusMeters 搜索半径，不大于0时为k近邻查询
+     * @param count 最多返回的数量
+     * @param after 上一页的最后一个结果，为null时从头开始
+     * @return 按距离由近到远排列
+     */
+    public List<ShopGeoIndex.Hit> search(Long typeId, double x, double y, double radiusMeters, int count, ShopGeoIndex.Hit after) {
+        if (!loaded) {
+            ensureLoaded();
+        }
+        return index.search(typeId, x, y, radiusMeters, count, after);
+    }
+
+    /**
+     * 把最后一个结果编码为游标
+     * @param hit
+     * @return
+     */
+    public static String encodeCursor(ShopGeoIndex.Hit hit) {
+        return Base64.encodeUrlSafe(hit.getDistance() + ":" + hit.getId());
+    }
+
+    /**
+     * 解析游标，为空时返回null
+     * @param cursor
+     * @return
+     */
+    public static ShopGeoIndex.Hit decodeCursor(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        String[] parts = Base64.decodeStr(cursor).split(":");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("无效的游标");
+        }
+        return new ShopGeoIndex.Hit(Long.parseLong(parts[1]), Double.parseDouble(parts[0]));
+    }
+
+    private static boolean hasLocation(Shop shop) {
+        return shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+}
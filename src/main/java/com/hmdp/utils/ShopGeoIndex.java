@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按店铺类型划分的空间索引
+ * 结果按距离由近到远排列，距离相同时按id排列，after作为游标时只返回排在它之后的店铺
+ */
+public interface ShopGeoIndex {
+
+    Comparator<Hit> ORDER = Comparator.comparingDouble(Hit::getDistance).thenComparingLong(Hit::getId);
+
+    /**
+     * 用全量数据替换索引
+     * @param locations 类型id -> 该类型下的店铺坐标
+     */
+    void load(Map<Long, List<Location>> locations);
+
+    void put(Long typeId, Location location);
+
+    void remove(Long typeId, Long shopId);
+
+    /**
+     * 查询距离最近的店铺
+     * @param typeId
+     * @param x 经度
+     * @param y 纬度
+     * @param radiusMeters 搜索半径，不大于0时不限制半径，即k近邻查询
+     * @param count 最多返回的数量
+     * @param after 上一页的最后一个结果，为null时从头开始
+     * @return
+     */
+    List<Hit> search(Long typeId, double x, double y, double radiusMeters, int count, Hit after);
+
+    class Location {
+        private final long id;
+        private final double x;
+        private final double y;
+
+        public Location(long id, double x, double y) {
+            this.id = id;
+            this.x = x;
+            this.y = y;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+    }
+
+    class Hit {
+        private final long id;
+        //距离（米）
+        private final double distance;
+
+        public Hit(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+
+        /**
+         * 是否排在游标之后
+         * @param after
+         * @return
+         */
+        public boolean isAfter(Hit after) {
+            return after == null || ORDER.compare(this, after) > 0;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_RANK_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_RANK_KEY;
+
+/**
+ * 店铺排行榜
+ * 总榜直接使用ShopListClient中各类型与全站的有序集合，分数中包含id，同值时id小的在前；
+ * 日榜、周榜：下单与点评时按小时分桶累加，查询时用ZUNIONSTORE合并最近24或168个桶，合并结果短时间缓存
+ * 下单的销量在订单事务中累加到数据库，事务提交后写入小时桶与总榜；
+ * 定时按数据库中的销量、评分、评论数校正总榜，多个节点中同一时间只有一个在执行
+ */
+@Slf4j
+@Component
+public class ShopLeaderboard {
+
+    public static final String WINDOW_ALL = "all";
+    public static final String WINDOW_DAY = "day";
+    public static final String WINDOW_WEEK = "week";
+
+    //支持日榜、周榜的字段，评分是平均值，只有总榜
+    private static final List<String> WINDOW_FIELDS = Arrays.asList("sold", "comments");
+
+    private static final DateTimeFormatter HOUR_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHH");
+
+    //小时桶保留的时间，需覆盖周榜
+    private static final long BUCKET_TTL_HOURS = 24 * 8;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private ShopListClient shopListClient;
+
+    //合并后的日榜、周榜缓存时间
+    @Value("${hmdp.rank.window-cache-seconds:60}")
+    private long windowCacheSeconds;
+
+    //总榜与数据库校正的间隔
+    @Value("${hmdp.rank.reconcile-interval-minutes:10}")
+    private long reconcileIntervalMinutes;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    private void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "shop-rank-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reconcile, reconcileIntervalMinutes, reconcileIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 累加当前小时的桶，总榜由ShopListClient按数据库的值更新
+     * @param typeId
+     * @param shopId
+     * @param field sold或comments，其他字段忽略
+     * @param delta
+     */
+    public void increment(Long typeId, Long shopId, String field, long delta) {
+        if (!WINDOW_FIELDS.contains(field)) {
+            return;
+        }
+        String bucket = bucketKey(field, LocalDateTime.now());
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : new String[]{bucket, typeKey(bucket, typeId)}) {
+                conn.zIncrBy(key, delta, shopId.toString());
+                conn.expire(key, TimeUnit.HOURS.toSeconds(BUCKET_TTL_HOURS));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 记录下单产生的销量：累加小时桶与总榜，数据库中的销量已在下单事务中累加
+     * @param typeId
+     * @param shopId
+     * @param delta
+     */
+    public void recordSold(Long typeId, Long shopId, long delta) {
+        String bucket = bucketKey("sold", LocalDateTime.now());
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : new String[]{bucket, typeKey(bucket, typeId)}) {
+                conn.zIncrBy(key, delta, shopId.toString());
+                conn.expire(key, TimeUnit.HOURS.toSeconds(BUCKET_TTL_HOURS));
+            }
+            return null;
+        });
+        shopListClient.incrementSold(typeId, shopId, delta);
+    }
+
+    /**
+     * 查询排行榜的前n名
+     * @param field sold、score或comments
+     * @param typeId 为null时查询全站
+     * @param window all、day或week
+     * @param n
+     * @return 按名次排列
+     */
+    public List<Entry> top(String field, Long typeId, String window, int n) {
+        String key = boardKey(field, typeId, window);
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet().reverseRangeWithScores(key, 0, n - 1);
+        if (tuples == null || tuples.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Entry> entries = new ArrayList<>(tuples.size());
+        int rank = 1;
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            entries.add(new Entry(Long.parseLong(tuple.getValue()), toValue(window, tuple.getScore()), rank++));
+        }
+        return entries;
+    }
+
+    /**
+     * 查询店铺的名次
+     * @param field
+     * @param typeId 为null时查询全站
+     * @param window
+     * @param shopId
+     * @return 不在榜上时返回null
+     */
+    public Entry rank(String field, Long typeId, String window, Long shopId) {
+        String key = boardKey(field, typeId, window);
+        Long rank = stringRedisTemplate.opsForZSet().reverseRank(key, shopId.toString());
+        Double score = stringRedisTemplate.opsForZSet().score(key, shopId.toString());
+        if (rank == null || score == null) {
+            return null;
+        }
+        return new Entry(shopId, toValue(window, score), rank.intValue() + 1);
+    }
+
+    /**
+     * 榜单对应的有序集合，日榜、周榜不存在时合并最近的小时桶
+     */
+    private String boardKey(String field, Long typeId, String window) {
+        if (!ShopListClient.SORT_FIELDS.contains(field)) {
+            throw new IllegalArgumentException("不支持的排行字段：" + field);
+        }
+        if (WINDOW_ALL.equals(window)) {
+            return typeId == null ? ShopListClient.globalKey(field) : ShopListClient.key(typeId, field);
+        }
+        int hours;
+        if (WINDOW_DAY.equals(window)) {
+            hours = 24;
+        } else if (WINDOW_WEEK.equals(window)) {
+            hours = 24 * 7;
+        } else {
+            throw new IllegalArgumentException("不支持的时间范围：" + window);
+        }
+        if (!WINDOW_FIELDS.contains(field)) {
+            throw new IllegalArgumentException(field + "只有总榜");
+        }
+        String dest = typeKey(SHOP_RANK_KEY + field + ":" + window, typeId);
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(dest))) {
+            return dest;
+        }
+        //合并最近的小时桶，结果缓存一段时间
+        LocalDateTime now = LocalDateTime.now();
+        List<String> buckets = new ArrayList<>(hours);
+        for (int i = 0; i < hours; i++) {
+            buckets.add(typeKey(bucketKey(field, now.minusHours(i)), typeId));
+        }
+        stringRedisTemplate.opsForZSet().unionAndStore(buckets.get(0), buckets.subList(1, buckets.size()), dest);
+        stringRedisTemplate.expire(dest, windowCacheSeconds, TimeUnit.SECONDS);
+        return dest;
+    }
+
+    private static long toValue(String window, double score) {
+        return WINDOW_ALL.equals(window) ? ShopListClient.valueOf(score) : (long) score;
+    }
+
+    private static String bucketKey(String field, LocalDateTime time) {
+        return SHOP_RANK_KEY + field + ":h:" + time.format(HOUR_FORMATTER);
+    }
+
+    private static String typeKey(String key, Long typeId) {
+        return typeId == null ? key : key + ":type:" + typeId;
+    }
+
+    /**
+     * 用数据库中的值覆盖总榜，纠正遗漏的事件
+     */
+    private void reconcile() {
+        RLock lock = redissonClient.getLock(LOCK_SHOP_RANK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            int count = shopListClient.reconcile();
+            log.info("店铺排行榜校正完成，店铺{}个，耗时{}ms", count, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("店铺排行榜校正失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static class Entry {
+        private final long shopId;
+        private final long value;
+        //名次，从1开始
+        private final int rank;
+
+        public Entry(long shopId, long value, int rank) {
+            this.shopId = shopId;
+            this.value = value;
+            this.rank = rank;
+        }
+
+        public long getShopId() {
+            return shopId;
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        public int getRank() {
+            return rank;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_LIST_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_RANK_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_LIST_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_LIST_LOADED_KEY;
+
+/**
+ * 按类型与排序字段保存店铺id的有序集合，用于游标分页，同时作为各类型与全站的总榜
+ * 有序集合的分数由排序字段和id组合而成：字段值 * 2^26 + (2^26 - 1 - id)，
+ * 分数从高到低即字段值从大到小、id从小到大，且每个店铺的分数唯一，游标就是上一页最后一个分数
+ * 分数需在double的53位精度内，id不超过2^26 - 1（超出的店铺不写入有序集合），字段值限制在2^27 - 1以内
+ * 全量加载完成前（标记key不存在）按同样的顺序用数据库的索引做游标分页
+ * 全量加载写入临时key后逐个RENAME替换，多个节点中只有一个执行，标记已存在时不再加载
+ */
+@Slf4j
+@Component
+public class ShopListClient {
+
+    //可排序的字段
+    public static final List<String> SORT_FIELDS = Arrays.asList("sold", "score", "comments");
+
+    private static final int ID_BITS = 26;
+
+    private static final long ID_MASK = (1L << ID_BITS) - 1;
+
+    private static final long MAX_VALUE = (1L << 27) - 1;
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    //全量加载时临时key的后缀
+    private static final String TMP_SUFFIX = ":tmp";
+
+    //累加销量，保留id部分并限制销量范围
+    private static final DefaultRedisScript<Long> SOLD_INCR_SCRIPT;
+
+    static {
+        SOLD_INCR_SCRIPT = new DefaultRedisScript<>();
+        SOLD_INCR_SCRIPT.setResultType(Long.class);
+        SOLD_INCR_SCRIPT.setLocation(new ClassPathResource("shop_sold_incr.lua"));
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 按id顺序分批读取全部店铺，写入临时key后替换所有类型的有序集合
+     * 已加载过（标记存在）或其他节点正在加载时直接返回，之后由reconcile定时校正
+     * @return 写入的店铺数量
+     */
+    public synchronized int rebuild() {
+        if (isLoaded()) {
+            return 0;
+        }
+        RLock lock = redissonClient.getLock(LOCK_SHOP_LIST_KEY);
+        if (!lock.tryLock()) {
+            return 0;
+        }
+        try {
+            //1.获取锁后再次判断
+            if (isLoaded()) {
+                return 0;
+            }
+            //2.按id分批写入临时key
+            List<String> keys = new ArrayList<>();
+            for (ShopType type : shopTypeMapper.selectList(new QueryWrapper<ShopType>().select("id"))) {
+                for (String field : SORT_FIELDS) {
+                    keys.add(key(type.getId(), field));
+                }
+            }
+            for (String field : SORT_FIELDS) {
+                keys.add(globalKey(field));
+            }
+            stringRedisTemplate.delete(keys.stream().map(key -> key + TMP_SUFFIX).collect(Collectors.toList()));
+            int count = write(TMP_SUFFIX);
+            //3.逐个替换，没有店铺的类型删除旧数据
+            for (String key : keys) {
+                if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key + TMP_SUFFIX))) {
+                    stringRedisTemplate.rename(key + TMP_SUFFIX, key);
+                } else {
+                    stringRedisTemplate.delete(key);
+                }
+            }
+            //4.写入标记
+            stringRedisTemplate.opsForValue().set(SHOP_TYPE_LIST_LOADED_KEY, String.valueOf(System.currentTimeMillis()));
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isLoaded() {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(SHOP_TYPE_LIST_LOADED_KEY));
+    }
+
+    /**
+     * 按数据库中的值覆盖有序集合中的分数，不删除已有数据，查询不受影响
+     * @return 写入的店铺数量
+     */
+    public int reconcile() {
+        return write("");
+    }
+
+    /**
+     * 按id分批读取店铺，写入有序集合
+     * @param suffix 写入key的后缀，全量加载时写入临时key
+     */
+    private int write(String suffix) {
+        int count = 0;
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectPage(new Page<>(1, LOAD_BATCH_SIZE, false),
+                    new QueryWrapper<Shop>()
+                            .select("id", "type_id", "sold", "score", "comments")
+                            .gt("id", lastId)
+                            .orderByAsc("id")
+            ).getRecords();
+            if (shops.isEmpty()) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Shop shop : shops) {
+                    add(conn, shop, suffix);
+                }
+                return null;
+            });
+            count += shops.size();
+            if (shops.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    private static void add(StringRedisConnection conn, Shop shop, String suffix) {
+        if (!inRange(shop.getId())) {
+            log.warn("店铺id{}超过{}，无法写入店铺列表", shop.getId(), ID_MASK);
+            return;
+        }
+        for (String field : SORT_FIELDS) {
+            double score = score(shop, field);
+            conn.zAdd(key(shop.getTypeId(), field) + suffix, score, shop.getId().toString());
+            conn.zAdd(globalKey(field) + suffix, score, shop.getId().toString());
+        }
+    }
+
+    /**
+     * 店铺新增或更新后，按数据库中的最新值更新有序集合
+     * @param id
+     * @param oldTypeId 更新前的类型，类型未变化时可为null
+     * @return 数据库中的店铺类型与排序字段，店铺不存在时返回null
+     */
+    public Shop refresh(Long id, Long oldTypeId) {
+        Shop shop = shopMapper.selectOne(new QueryWrapper<Shop>()
+                .select("id", "type_id", "sold", "score", "comments")
+                .eq("id", id));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            if (oldTypeId != null && (shop == null || !oldTypeId.equals(shop.getTypeId()))) {
+                for (String field : SORT_FIELDS) {
+                    conn.zRem(key(oldTypeId, field), id.toString());
+                }
+            }
+            if (shop != null) {
+                add(conn, shop, "");
+            } else {
+                for (String field : SORT_FIELDS) {
+                    conn.zRem(globalKey(field), id.toString());
+                }
+            }
+            return null;
+        });
+        return shop;
+    }
+
+    /**
+     * 累加销量对应的分数，不修改分数中的id部分，销量限制在[0, 2^27 - 1]；店铺尚未加载时由重建或校正写入
+     * @param typeId
+     * @param shopId
+     * @param delta
+     */
+    public void incrementSold(Long typeId, Long shopId, long delta) {
+        if (!inRange(shopId)) {
+            return;
+        }
+        stringRedisTemplate.execute(SOLD_INCR_SCRIPT, Arrays.asList(key(typeId, "sold"), globalKey("sold")),
+                shopId.toString(), String.valueOf(delta));
+    }
+
+    /**
+     * 查询一页店铺id
+     * @param typeId
+     * @param sortBy 排序字段，从大到小
+     * @param cursor 上一页返回的游标，第一页为空
+     * @param count 每页数量
+     * @return
+     */
+    public Slice scroll(Long typeId, String sortBy, String cursor, int count) {
+        if (!SORT_FIELDS.contains(sortBy)) {
+            throw new IllegalArgumentException("不支持的排序字段：" + sortBy);
+        }
+        long max = decodeCursor(cursor);
+        List<Long> ids;
+        List<Long> scores;
+        if (isLoaded()) {
+            //1.分数小于游标的前count个
+            Set<ZSetOperations.TypedTuple<String>> tuples =
+                    stringRedisTemplate.opsForZSet().reverseRangeByScoreWithScores(key(typeId, sortBy), 0, max - 1, 0, count);
+            ids = new ArrayList<>(count);
+            scores = new ArrayList<>(count);
+            if (tuples != null) {
+                for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                    ids.add(Long.valueOf(tuple.getValue()));
+                    scores.add(tuple.getScore().longValue());
+                }
+            }
+        } else {
+            //2.尚未加载，按(字段, id)在数据库中做游标分页
+            QueryWrapper<Shop> wrapper = new QueryWrapper<Shop>()
+                    .select("id", "type_id", sortBy)
+                    .eq("type_id", typeId)
+                    .le("id", ID_MASK);
+            if (max != Long.MAX_VALUE) {
+                long value = max >>> ID_BITS;
+                long id = ID_MASK - (max & ID_MASK);
+                wrapper.and(w -> w.lt(sortBy, value).or(o -> o.eq(sortBy, value).gt("id", id)));
+            }
+            List<Shop> shops = shopMapper.selectPage(new Page<>(1, count, false),
+                    wrapper.orderByDesc(sortBy).orderByAsc("id")).getRecords();
+            ids = shops.stream().map(Shop::getId).collect(Collectors.toList());
+            scores = shops.stream().map(shop -> score(shop, sortBy)).map(Double::longValue).collect(Collectors.toList());
+        }
+        String next = ids.size() == count ? Base64.encodeUrlSafe(String.valueOf(scores.get(scores.size() - 1))) : null;
+        return new Slice(ids, next);
+    }
+
+    private static long decodeCursor(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Long.parseLong(Base64.decodeStr(cursor));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的游标");
+        }
+    }
+
+    static String key(Long typeId, String field) {
+        return SHOP_TYPE_LIST_KEY + typeId + ":" + field;
+    }
+
+    /**
+     * 全站的有序集合
+     */
+    static String globalKey(String field) {
+        return SHOP_RANK_KEY + field;
+    }
+
+    /**
+     * 从分数中取出排序字段的值
+     */
+    static long valueOf(double score) {
+        return ((long) score) >>> ID_BITS;
+    }
+
+    /**
+     * id能否放入分数的低26位
+     */
+    static boolean inRange(Long id) {
+        return id != null && id > 0 && id <= ID_MASK;
+    }
+
+    /**
+     * 由排序字段与id组合的分数
+     * @throws IllegalArgumentException id超出范围时，否则id部分为负数会改写排序字段的位
+     */
+    static double score(Shop shop, String field) {
+        if (!inRange(shop.getId())) {
+            throw new IllegalArgumentException("店铺id超出范围：" + shop.getId());
+        }
+        Integer value;
+        switch (field) {
+            case "sold":
+                value = shop.getSold();
+                break;
+            case "score":
+                value = shop.getScore();
+                break;
+            default:
+                value = shop.getComments();
+        }
+        long v = value == null ? 0 : Math.min(Math.max(value, 0), MAX_VALUE);
+        return (double) ((v << ID_BITS) | (ID_MASK - shop.getId()));
+    }
+
+    /**
+     * 一页店铺id与下一页的游标
+     */
+    public static class Slice {
+        private final List<Long> ids;
+        //为null时没有更多数据
+        private final String cursor;
+
+        public Slice(List<Long> ids, String cursor) {
+            this.ids = ids;
+            this.cursor = cursor;
+        }
+
+        public List<Long> getIds() {
+            return ids;
+        }
+
+        public String getCursor() {
+            return cursor;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.hmdp.utils.RedisConstants.SHOP_NAME_SYNC_CHANNEL;
+
+/**
+ * 店铺名称与商圈的进程内倒排索引
+ * 按单字和相邻两字（bigram）建立倒排表，查询时求关键字各个bigram倒排表的交集，再校验确实包含关键字；
+ * 结果按名称前缀匹配、名称包含、商圈包含分档，同档按评分从高到低、id从小到大排列
+ * 在首次查询或预热时从数据库加载，店铺写入后广播店铺id，各节点重新读取该店铺；
+ * 加载完成前与重建期间收到的店铺id先记录下来，替换索引后重新读取
+ */
+@Slf4j
+@Component
+public class ShopNameIndex {
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private static final long[] EMPTY = new long[0];
+
+    private static final Comparator<Hit> ORDER = Comparator.comparingInt(Hit::getTier)
+            .thenComparing(Comparator.comparingInt(Hit::getScore).reversed())
+            .thenComparingLong(Hit::getId);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    //店铺id -> 索引的字段
+    private volatile Map<Long, Doc> docs = new ConcurrentHashMap<>();
+
+    //单字或bigram -> 按id升序的店铺id
+    private volatile Map<String, long[]> postings = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded;
+
+    //正在从数据库重建
+    private volatile boolean rebuilding;
+
+    //尚未重新读取的店铺id
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    //修改倒排表与替换索引互斥
+    private final Object updateLock = new Object();
+
+    //重新读取店铺的线程互斥
+    private final ReentrantLock drainLock = new ReentrantLock();
+
+    @PostConstruct
+    private void init() {
+        //订阅其他节点的店铺写入
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(SHOP_NAME_SYNC_CHANNEL)
+        );
+    }
+
+    /**
+     * 按id顺序分批读取全部店铺的名称与商圈，重建索引，可重复执行
+     * @return 索引的店铺数量
+     */
+    public synchronized int rebuild() {
+        rebuilding = true;
+        try {
+            return load();
+        } finally {
+            rebuilding = false;
+            drain();
+        }
+    }
+
+    /**
+     * 首次查询时加载，已加载时直接返回
+     */
+    private synchronized void ensureLoaded() {
+        if (!loaded) {
+            rebuild();
+        }
+    }
+
+    private int load() {
+        Map<Long, Doc> freshDocs = new ConcurrentHashMap<>();
+        Map<String, List<Long>> lists = new HashMap<>();
+        long lastId = 0;
+        while (true) {
+            //1.按id读取下一批，只查询需要的字段
+            List<Shop> shops = shopMapper.selectPage(new Page<>(1, LOAD_BATCH_SIZE, false),
+                    new QueryWrapper<Shop>()
+                            .select("id", "name", "area", "score")
+                            .gt("id", lastId)
+                            .orderByAsc("id")
+            ).getRecords();
+            if (shops.isEmpty()) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            //2.按id升序追加到倒排表
+            for (Shop shop : shops) {
+                Doc doc = new Doc(shop);
+                freshDocs.put(shop.getId(), doc);
+                for (String gram : doc.grams()) {
+                    lists.computeIfAbsent(gram, k -> new ArrayList<>()).add(shop.getId());
+                }
+            }
+            if (shops.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+        }
+        Map<String, long[]> freshPostings = new ConcurrentHashMap<>(lists.size() * 2);
+        lists.forEach((gram, ids) -> freshPostings.put(gram, ids.stream().mapToLong(Long::longValue).toArray()));
+        synchronized (updateLock) {
+            docs = freshDocs;
+            postings = freshPostings;
+            loaded = true;
+        }
+        return freshDocs.size();
+    }
+
+    /**
+     * 店铺新增或更新后，从数据库重新读取并通知所有节点
+     * @param id
+     */
+    public void refresh(Long id) {
+        reload(id);
+        stringRedisTemplate.convertAndSend(SHOP_NAME_SYNC_CHANNEL, id.toString());
+    }
+
+    private void onMessage(String message) {
+        try {
+            reload(Long.valueOf(message));
+        } catch (Exception e) {
+            log.error("处理店铺名称同步消息失败：{}", message, e);
+        }
+    }
+
+    /**
+     * 记录店铺id，加载完成且不在重建时立即重新读取
+     */
+    private void reload(Long id) {
+        pending.add(id);
+        if (loaded && !rebuilding) {
+            drain();
+        }
+    }
+
+    /**
+     * 同一时间只有一个线程处理，其他线程记录id后直接返回，由持有者释放后再次检查
+     * 不能并发处理：先读到旧数据的线程可能在后读到新数据的线程之后才写入
+     */
+    private void drain() {
+        while (loaded && !rebuilding && !pending.isEmpty()) {
+            if (!drainLock.tryLock()) {
+                return;
+            }
+            try {
+                drainOnce();
+            } finally {
+                drainLock.unlock();
+            }
+        }
+    }
+
+    private void drainOnce() {
+        //1.取出待处理的id，在锁外按批读取
+        Map<Long, Doc> current = docs;
+        List<Long> ids = new ArrayList<>();
+        for (Iterator<Long> it = pending.iterator(); it.hasNext(); ) {
+            ids.add(it.next());
+            it.remove();
+        }
+        Map<Long, Shop> shops = new HashMap<>(ids.size() * 2);
+        for (int i = 0; i < ids.size(); i += LOAD_BATCH_SIZE) {
+            shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "name", "area", "score")
+                    .in("id", ids.subList(i, Math.min(i + LOAD_BATCH_SIZE, ids.size())))
+            ).forEach(shop -> shops.put(shop.getId(), shop));
+        }
+        //2.在锁内修改倒排表，与替换索引互斥
+        synchronized (updateLock) {
+            if (docs != current) {
+                //读取期间索引已被重建替换，读到的数据可能比重建时旧，交给重建结束后再处理
+                pending.addAll(ids);
+                return;
+            }
+            for (Long id : ids) {
+                apply(id, shops.get(id));
+            }
+        }
+    }
+
+    /**
+     * 只修改新旧字段不同的倒排表，每个倒排表复制后整体替换
+     * @param id
+     * @param shop 数据库中的店铺，已删除时为null
+     */
+    private void apply(Long id, Shop shop) {
+        Doc old = docs.get(id);
+        Doc doc = shop == null ? null : new Doc(shop);
+        Set<String> oldGrams = old == null ? Collections.emptySet() : old.grams();
+        Set<String> newGrams = doc == null ? Collections.emptySet() : doc.grams();
+        for (String gram : oldGrams) {
+            if (!newGrams.contains(gram)) {
+                long[] ids = postings.getOrDefault(gram, EMPTY);
+                int index = Arrays.binarySearch(ids, id);
+                if (index >= 0) {
+                    long[] copy = new long[ids.length - 1];
+                    System.arraycopy(ids, 0, copy, 0, index);
+                    System.arraycopy(ids, index + 1, copy, index, copy.length - index);
+                    postings.put(gram, copy);
+                }
+            }
+        }
+        for (String gram : newGrams) {
+            if (!oldGrams.contains(gram)) {
+                long[] ids = postings.getOrDefault(gram, EMPTY);
+                int index = Arrays.binarySearch(ids, id);
+                if (index < 0) {
+                    int insert = -index - 1;
+                    long[] copy = new long[ids.length + 1];
+                    System.arraycopy(ids, 0, copy, 0, insert);
+                    copy[insert] = id;
+                    System.arraycopy(ids, insert, copy, insert + 1, ids.length - insert);
+                    postings.put(gram, copy);
+                }
+            }
+        }
+        if (doc == null) {
+            docs.remove(id);
+        } else {
+            docs.put(id, doc);
+        }
+    }
+
+    /**
+     * 按名称或商圈关键字查询店铺
+     * @param keyword 关键字，忽略大小写与空白
+     * @param count 最多返回的数量
+     * @param after 上一页的最后一个结果，为null时从头开始
+     * @return 按匹配程度与评分排列
+     */
+    public List<Hit> search(String keyword, int count, Hit after) {
+        if (!loaded) {
+            ensureLoaded();
+        }
+        String q = normalize(keyword);
+        if (q.isEmpty() || count <= 0) {
+            return Collections.emptyList();
+        }
+        //1.取出关键字的各个bigram的倒排表，从短到长求交集
+        Set<String> grams = q.length() == 1 ? Collections.singleton(q) : bigrams(q);
+        List<long[]> lists = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            long[] ids = postings.get(gram);
+            if (ids == null) {
+                return Collections.emptyList();
+            }
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(ids -> ids.length));
+        long[] candidates = lists.get(0);
+        for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+            candidates = intersect(candidates, lists.get(i));
+        }
+        //2.校验确实包含关键字并分档，保留排在游标之后的前count个
+        PriorityQueue<Hit> heap = new PriorityQueue<>(count + 1, ORDER.reversed());
+        Map<Long, Doc> current = docs;
+        for (long id : candidates) {
+            Doc doc = current.get(id);
+            if (doc == null) {
+                continue;
+            }
+            int tier = doc.tier(q);
+            if (tier < 0) {
+                continue;
+            }
+            Hit hit = new Hit(id, tier, doc.score);
+            if (after != null && ORDER.compare(hit, after) <= 0) {
+                continue;
+            }
+            if (heap.size() < count) {
+                heap.add(hit);
+            } else if (ORDER.compare(hit, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(hit);
+            }
+        }
+        List<Hit> hits = new ArrayList<>(heap);
+        hits.sort(ORDER);
+        return hits;
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : StrUtil.cleanBlank(text).toLowerCase();
+    }
+
+    private static Set<String> bigrams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + 2 <= text.length(); i++) {
+            grams.add(text.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    /**
+     * 把最后一个结果编码为游标
+     * @param hit
+     * @return
+     */
+    public static String encodeCursor(Hit hit) {
+        return Base64.encodeUrlSafe(hit.getTier() + ":" + hit.getScore() + ":" + hit.getId());
+    }
+
+    /**
+     * 解析游标，为空时返回null
+     * @param cursor
+     * @return
+     */
+    public static Hit decodeCursor(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        String[] parts = Base64.decodeStr(cursor).split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("无效的游标");
+        }
+        return new Hit(Long.parseLong(parts[2]), Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    public int size() {
+        return docs.size();
+    }
+
+    private static class Doc {
+        private final String name;
+        private final String area;
+        private final int score;
+
+        private Doc(Shop shop) {
+            this.name = normalize(shop.getName());
+            this.area = normalize(shop.getArea());
+            this.score = shop.getScore() == null ? 0 : shop.getScore();
+        }
+
+        /**
+         * 名称与商圈分别切分，不跨字段组合
+         */
+        private Set<String> grams() {
+            Set<String> grams = new HashSet<>();
+            for (String text : new String[]{name, area}) {
+                for (int i = 0; i < text.length(); i++) {
+                    grams.add(text.substring(i, i + 1));
+                }
+                grams.addAll(bigrams(text));
+            }
+            return grams;
+        }
+
+        /**
+         * 匹配档位：0名称前缀，1名称包含，2商圈包含，-1不匹配
+         */
+        private int tier(String q) {
+            if (name.startsWith(q)) {
+                return 0;
+            }
+            if (name.contains(q)) {
+                return 1;
+            }
+            return area.contains(q) ? 2 : -1;
+        }
+    }
+
+    public static class Hit {
+        private final long id;
+        private final int tier;
+        private final int score;
+
+        public Hit(long id, int tier, int score) {
+            this.id = id;
+            this.tier = tier;
+            this.score = score;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public int getTier() {
+            return tier;
+        }
+
+        public int getScore() {
+            return score;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * 请求合并：同一key的并发调用只执行一次，其余调用等待并共享同一结果
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * 执行或等待同一key正在进行的调用
+     * @param key 合并的key
+     * @param loader 实际执行的逻辑，在第一个调用者的线程中执行
+     * @param timeout 等待其他调用者结果的最长时间
+     * @param unit
+     * @return loader的结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader, long timeout, TimeUnit unit) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, future);
+        if (existing == null) {
+            //1.当前线程负责执行
+            try {
+                T value = loader.get();
+                future.complete(value);
+                return value;
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                calls.remove(key, future);
+            }
+        }
+        //2.等待正在执行的调用
+        try {
+            return (T) existing.get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("等待" + key + "加载超时", e);
+        }
+    }
+
+    /**
+     * 当前正在执行的调用数量
+     * @return
+     */
+    public int size() {
+        return calls.size();
+    }
+}
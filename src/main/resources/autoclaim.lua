@@ -0,0 +1,17 @@
+--- 1.参数列表
+--- 1.1.消费者组
+local group = ARGV[1]
+--- 1.2.认领消息的消费者
+local consumer = ARGV[2]
+--- 1.3.最小空闲时间（毫秒）
+local minIdle = ARGV[3]
+--- 1.4.扫描起点
+local start = ARGV[4]
+--- 1.5.最多认领的数量
+local count = ARGV[5]
+
+--- 2.认领空闲超时的消息，XAUTOCLAIM stream.orders g1 consumer minIdle start COUNT n JUSTID
+local result = redis.call('xautoclaim', KEYS[1], group, consumer, minIdle, start, 'COUNT', count, 'JUSTID')
+
+--- 3.返回下一次扫描的起点与认领的数量
+return {result[1], tostring(#result[2])}
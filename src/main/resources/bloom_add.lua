@@ -0,0 +1,12 @@
+-- 布隆过滤器添加元素，重建期间同时写入接收新增的临时key，避免重建完成后丢失
+-- KEYS[1]：过滤器bitmap
+-- KEYS[2]：重建期间存在的临时key
+-- ARGV：元素对应的位下标
+local building = redis.call('exists', KEYS[2]) == 1
+for i = 1, #ARGV do
+    redis.call('setbit', KEYS[1], ARGV[i], 1)
+    if(building) then
+        redis.call('setbit', KEYS[2], ARGV[i], 1)
+    end
+end
+return 1
@@ -0,0 +1,10 @@
+-- 重建完成，合并重建期间的新增后替换过滤器bitmap
+-- KEYS[1]：过滤器bitmap
+-- KEYS[2]：重建期间接收新增的临时key
+-- KEYS[3]：从数据库构建的bitmap
+redis.call('bitop', 'or', KEYS[2], KEYS[2], KEYS[3])
+redis.call('del', KEYS[3])
+redis.call('rename', KEYS[2], KEYS[1])
+-- 临时key带有过期时间，替换后取消
+redis.call('persist', KEYS[1])
+return 1
@@ -0,0 +1,17 @@
+-- 仅在缓存存在时原地更新哈希字段，缓存不存在时不写入，避免留下不完整的数据
+-- KEYS[1]：缓存key
+-- ARGV[1]：操作类型，set（ARGV[2..]为字段、值交替）或incr（ARGV[2]为字段，ARGV[3]为增量）
+if(redis.call('exists', KEYS[1]) == 0) then
+    return nil
+end
+-- 数据库中不存在该数据
+if(redis.call('hexists', KEYS[1], '_empty') == 1) then
+    return nil
+end
+if(ARGV[1] == 'incr') then
+    return redis.call('hincrby', KEYS[1], ARGV[2], ARGV[3])
+end
+for i = 2, #ARGV, 2 do
+    redis.call('hset', KEYS[1], ARGV[i], ARGV[i + 1])
+end
+return 1
@@ -1,35 +1,33 @@
+--- 每次调用只访问一个库存段：段的库存key与订单key使用相同的哈希标签{voucherId:段号}，Redis Cluster下落在同一个槽
+--- 用户所在段售罄时由调用方依次对其余段单独调用，只扣减库存；段数、库存代数与订单消息队列也由调用方单独读写
 --- 1.参数列表
---- 1.1.优惠券id
-local voucherId = ARGV[1]
---- 1.2.用户id
-local userId = ARGV[2]
---- 1.3.订单id
-local orderId = ARGV[3]
-
---- 2.数据key
---- 2.1.库存key
-local stockKey = 'seckill:stock:' .. voucherId
---- 2.2.订单key
-local orderKey = 'seckill:order:' .. voucherId
+--- 1.1.库存key
+local stockKey = KEYS[1]
+--- 1.2.订单key，只在用户所在段上传入；只扣减库存时不传
+local orderKey = KEYS[2]
+--- 1.3.用户id
+local userId = ARGV[1]
 
 --- 脚本业务
---- 3.1.判断库存是否充足
-if(tonumber(redis.call('get', stockKey)) <= 0) then
-    --- 3.2.库存不足，返回1
-    return 1
+--- 2.1.库存key不存在：调用方缓存的段数已过期或库存尚未写入，返回4，由调用方刷新段数后重试
+local stock = redis.call('get', stockKey)
+if (not stock) then
+    return 4
 end
-
---- 3.3.判断用户是否已下过单
-if (redis.call('sismember', orderKey, userId) == 1) then
-    --- 3.4.已下过单，返回2
+--- 2.2.判断用户是否已下过单
+if (orderKey and redis.call('sismember', orderKey, userId) == 1) then
+    --- 已下过单，返回2
     return 2
 end
-
---- 3.5.扣减库存
+--- 2.3.判断库存是否充足
+if (tonumber(stock) <= 0) then
+    --- 库存不足，返回1
+    return 1
+end
+--- 2.4.扣减库存，将userId写入订单key中
 redis.call('incrby', stockKey, -1)
---- 3.6.将userId写入订单key中
-redis.call('sadd', orderKey, userId)
---- 3.7.发送消息到消息队列中，XADD stream.orders * k1 v1 k2 v2 ...
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
---- 4.下单成功，返回0
-return 0
\ No newline at end of file
+if (orderKey) then
+    redis.call('sadd', orderKey, userId)
+end
+--- 3.扣减成功，返回0
+return 0
@@ -0,0 +1,18 @@
+-- 累加店铺列表有序集合分数中的销量部分，保留低26位的id部分，销量限制在[0, 2^27 - 1]
+-- 店铺不在有序集合中时不写入，由全量加载或校正写入完整的分数
+-- KEYS：各个有序集合
+-- ARGV[1]：店铺id，ARGV[2]：增量，可为负
+local idRange = 67108864
+local maxValue = 134217727
+for i = 1, #KEYS do
+    local score = redis.call('zscore', KEYS[i], ARGV[1])
+    if score then
+        score = tonumber(score)
+        local idPart = score % idRange
+        local value = (score - idPart) / idRange + tonumber(ARGV[2])
+        value = math.max(0, math.min(maxValue, value))
+        -- 分数超过14位有效数字，按整数格式传入，避免转换为字符串时丢失精度
+        redis.call('zadd', KEYS[i], string.format('%.0f', value * idRange + idPart), ARGV[1])
+    end
+end
+return 0
@@ -3,16 +3,27 @@ package com.hmdp;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.impl.ShopServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.GridShopGeoIndex;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisShopGeoIndex;
+import com.hmdp.utils.ShopGeoIndex;
+import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+@Slf4j
 @SpringBootTest
 class HmDianPingApplicationTests {
 
@@ -22,10 +33,102 @@ class HmDianPingApplicationTests {
     @Resource
     private ShopServiceImpl shopService;
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
     @Test
     public void testSavaShop(){
         Shop shop = shopService.getById(2L);
         cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + 2L, shop,10L , TimeUnit.MINUTES);
     }
 
+    @Test
+    public void loadShopData(){
+        int count = shopService.loadShopGeo();
+        long expected = shopService.query().isNotNull("type_id").isNotNull("x").isNotNull("y").count();
+        assertEquals(expected, count);
+    }
+
+    /**
+     * 对比Redis GEO与进程内网格索引：在店铺附近随机取点，每次按游标连续查询5页
+     * 网格索引的结果与暴力计算完全一致；Redis GEO的坐标经过geohash编码，距离允许1米误差
+     */
+    @Test
+    public void benchmarkShopGeo(){
+        Map<Long, List<ShopGeoIndex.Location>> locations = shopService.query().select("id", "type_id", "x", "y").list()
+                .stream()
+                .filter(shop -> shop.getTypeId() != null && shop.getX() != null && shop.getY() != null)
+                .collect(Collectors.groupingBy(Shop::getTypeId, Collectors.mapping(
+                        shop -> new ShopGeoIndex.Location(shop.getId(), shop.getX(), shop.getY()), Collectors.toList())));
+        List<ShopGeoIndex.Location> all = locations.values().stream().flatMap(List::stream).collect(Collectors.toList());
+        Map<Long, Long> typeOf = new HashMap<>();
+        locations.forEach((typeId, list) -> list.forEach(location -> typeOf.put(location.getId(), typeId)));
+        ShopGeoIndex redis = new RedisShopGeoIndex(stringRedisTemplate);
+        ShopGeoIndex grid = new GridShopGeoIndex(0.01);
+        redis.load(locations);
+        grid.load(locations);
+        for (int i = 0; i < 200; i++) {
+            ShopGeoIndex.Location center = all.get(ThreadLocalRandom.current().nextInt(all.size()));
+            double x = center.getX() + ThreadLocalRandom.current().nextDouble(-0.01, 0.01);
+            double y = center.getY() + ThreadLocalRandom.current().nextDouble(-0.01, 0.01);
+            Long typeId = typeOf.get(center.getId());
+            List<ShopGeoIndex.Hit> expected = locations.get(typeId).stream()
+                    .map(l -> new ShopGeoIndex.Hit(l.getId(), GridShopGeoIndex.distance(x, y, l.getX(), l.getY())))
+                    .filter(hit -> hit.getDistance() <= 5000)
+                    .sorted(ShopGeoIndex.ORDER)
+                    .limit(25)
+                    .collect(Collectors.toList());
+            List<ShopGeoIndex.Hit> gridHits = pages(grid, typeId, x, y);
+            List<ShopGeoIndex.Hit> redisHits = pages(redis, typeId, x, y);
+            assertEquals(ids(expected), ids(gridHits));
+            //Redis的结果按距离排列且不重复，距离与精确值相差不超过1米
+            Map<Long, Double> exact = locations.get(typeId).stream().collect(Collectors.toMap(
+                    ShopGeoIndex.Location::getId, l -> GridShopGeoIndex.distance(x, y, l.getX(), l.getY())));
+            double last = 0;
+            for (ShopGeoIndex.Hit hit : redisHits) {
+                assertEquals(exact.get(hit.getId()), hit.getDistance(), 1.0);
+                assertTrue(hit.getDistance() >= last);
+                last = hit.getDistance();
+            }
+            assertEquals(redisHits.size(), new HashSet<>(ids(redisHits)).size());
+            //与精确结果只在半径边界或第25个结果附近有差别
+            Set<Long> redisIds = new HashSet<>(ids(redisHits));
+            double cutoff = redisHits.size() == 25 ? last : 5000;
+            for (ShopGeoIndex.Hit hit : expected) {
+                assertTrue(redisIds.contains(hit.getId()) || hit.getDistance() >= cutoff - 1.0);
+            }
+        }
+        for (ShopGeoIndex index : Arrays.asList(redis, grid, redis, grid)) {
+            long begin = System.nanoTime();
+            int queries = 1000;
+            for (int i = 0; i < queries; i++) {
+                ShopGeoIndex.Location center = all.get(ThreadLocalRandom.current().nextInt(all.size()));
+                double x = center.getX() + ThreadLocalRandom.current().nextDouble(-0.01, 0.01);
+                double y = center.getY() + ThreadLocalRandom.current().nextDouble(-0.01, 0.01);
+                pages(index, typeOf.get(center.getId()), x, y);
+            }
+            log.info("{}：平均每次5页耗时{}us", index.getClass().getSimpleName(), (System.nanoTime() - begin) / queries / 1000);
+        }
+    }
+
+    /**
+     * 按游标连续查询5页，每页5个
+     */
+    private static List<ShopGeoIndex.Hit> pages(ShopGeoIndex index, Long typeId, double x, double y) {
+        List<ShopGeoIndex.Hit> hits = new ArrayList<>();
+        ShopGeoIndex.Hit after = null;
+        for (int page = 0; page < 5; page++) {
+            List<ShopGeoIndex.Hit> slice = index.search(typeId, x, y, 5000, 5, after);
+            hits.addAll(slice);
+            if (slice.size() < 5) {
+                break;
+            }
+            after = slice.get(slice.size() - 1);
+        }
+        return hits;
+    }
+
+    private static List<Long> ids(List<ShopGeoIndex.Hit> hits) {
+        return hits.stream().map(ShopGeoIndex.Hit::getId).collect(Collectors.toList());
+    }
 }
@@ -0,0 +1,115 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheCodecTest {
+
+    private final CacheCodec binary = new BinaryCacheCodec();
+
+    private final CacheCodec json = new JsonCacheCodec();
+
+    private static Shop shop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setSold(4215);
+        shop.setScore(37);
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        return shop;
+    }
+
+    private static RedisData logical(Object data, LocalDateTime expireTime) {
+        RedisData redisData = new RedisData();
+        redisData.setData(data);
+        redisData.setExpireTime(expireTime);
+        redisData.setRebuildCost(35L);
+        return redisData;
+    }
+
+    @Test
+    void binaryRoundTrip() {
+        Shop shop = shop();
+        byte[] bytes = binary.encode(shop);
+        assertTrue(binary.supports(bytes));
+        assertFalse(json.supports(bytes));
+        assertEquals(shop, binary.decode(bytes, Shop.class));
+
+        UserDTO user = new UserDTO();
+        user.setId(7L);
+        user.setNickName("user_7");
+        assertEquals(user, binary.decode(binary.encode(user), UserDTO.class));
+    }
+
+    @Test
+    void binaryCompatibleWithOwnClassOnly() {
+        byte[] plain = binary.encode(shop());
+        assertTrue(binary.isCompatible(plain, Shop.class));
+        assertFalse(binary.isCompatible(plain, UserDTO.class));
+
+        byte[] userBytes = binary.encode(new UserDTO());
+        assertTrue(binary.isCompatible(userBytes, UserDTO.class));
+        assertFalse(binary.isCompatible(userBytes, Shop.class));
+
+        byte[] logical = binary.encodeWithExpire(logical(shop(), LocalDateTime.now()));
+        assertTrue(binary.isCompatible(logical, Shop.class));
+        assertFalse(binary.isCompatible(logical, UserDTO.class));
+
+        assertFalse(binary.isCompatible(new byte[]{(byte) 0xC1, 1}, Shop.class));
+        assertFalse(binary.isCompatible("{\"id\":1}".getBytes(), Shop.class));
+    }
+
+    @Test
+    void binaryLogicalRoundTrip() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(30).truncatedTo(ChronoUnit.MILLIS);
+        RedisData redisData = binary.decodeWithExpire(binary.encodeWithExpire(logical(shop(), expireTime)), Shop.class);
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(35L, redisData.getRebuildCost());
+        assertEquals(shop(), redisData.getData());
+    }
+
+    @Test
+    void binaryReadsOtherFormat() {
+        //逻辑过期数据按普通数据读取，得到其中的数据
+        byte[] logical = binary.encodeWithExpire(logical(shop(), LocalDateTime.now().plusMinutes(1)));
+        assertEquals(shop(), binary.decode(logical, Shop.class));
+        //普通数据按逻辑过期读取，视为已过期
+        RedisData redisData = binary.decodeWithExpire(binary.encode(shop()), Shop.class);
+        assertEquals(shop(), redisData.getData());
+        assertTrue(redisData.getExpireTime().isBefore(LocalDateTime.now()));
+    }
+
+    @Test
+    void jsonRoundTrip() {
+        byte[] bytes = json.encode(shop());
+        assertTrue(json.supports(bytes));
+        assertFalse(binary.supports(bytes));
+        assertEquals(shop(), json.decode(bytes, Shop.class));
+
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(30).withNano(0);
+        RedisData redisData = json.decodeWithExpire(json.encodeWithExpire(logical(shop(), expireTime)), Shop.class);
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(shop(), redisData.getData());
+    }
+
+    @Test
+    void jsonReadsOtherFormat() {
+        byte[] logical = json.encodeWithExpire(logical(shop(), LocalDateTime.now().plusMinutes(1)));
+        Shop decoded = json.decode(logical, Shop.class);
+        assertEquals(shop(), decoded);
+        assertNotNull(decoded.getName());
+
+        RedisData redisData = json.decodeWithExpire(json.encode(shop()), Shop.class);
+        assertEquals(shop(), redisData.getData());
+        assertTrue(redisData.getExpireTime().isBefore(LocalDateTime.now()));
+    }
+}
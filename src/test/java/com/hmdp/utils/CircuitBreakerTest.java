@@ -0,0 +1,147 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private static CircuitBreaker breaker(long openMillis, int maxConcurrency) {
+        return new CircuitBreaker("test", 10, 4, 0.5, openMillis, 0, maxConcurrency, e -> true);
+    }
+
+    private static void fail(CircuitBreaker breaker) {
+        assertThrows(IllegalStateException.class, () -> breaker.execute(() -> {
+            throw new IllegalStateException("boom");
+        }));
+    }
+
+    @Test
+    void opensAfterFailureRate() {
+        CircuitBreaker breaker = breaker(60000, 0);
+        //1.未达到最少调用次数时不打开
+        fail(breaker);
+        fail(breaker);
+        fail(breaker);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        fail(breaker);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        //2.打开后直接失败，不执行调用
+        assertThrows(CircuitBreakerOpenException.class, () -> breaker.execute(() -> {
+            throw new AssertionError("不应执行");
+        }));
+    }
+
+    @Test
+    void staysClosedBelowThreshold() {
+        CircuitBreaker breaker = breaker(60000, 0);
+        for (int i = 0; i < 20; i++) {
+            if (i % 4 == 0) {
+                fail(breaker);
+            } else {
+                assertEquals("ok", breaker.execute(() -> "ok"));
+            }
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void ignoredExceptionsDoNotCount() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 10, 4, 0.5, 60000, 0, 0,
+                e -> !(e instanceof IllegalArgumentException));
+        for (int i = 0; i < 10; i++) {
+            assertThrows(IllegalArgumentException.class, () -> breaker.execute(() -> {
+                throw new IllegalArgumentException();
+            }));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void halfOpenTrialClosesOrReopens() throws Exception {
+        CircuitBreaker breaker = breaker(20, 0);
+        for (int i = 0; i < 4; i++) {
+            fail(breaker);
+        }
+        Thread.sleep(30);
+        //1.试探失败，重新打开
+        fail(breaker);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(30);
+        //2.试探成功，关闭
+        assertEquals("ok", breaker.execute(() -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void onlyOneTrialAtATime() throws Exception {
+        CircuitBreaker breaker = breaker(20, 0);
+        for (int i = 0; i < 4; i++) {
+            fail(breaker);
+        }
+        Thread.sleep(30);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread trial = new Thread(() -> breaker.execute(() -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "ok";
+        }));
+        trial.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertThrows(CircuitBreakerOpenException.class, () -> breaker.execute(() -> "other"));
+        release.countDown();
+        trial.join(5000);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void errorReleasesTrial() throws Exception {
+        CircuitBreaker breaker = breaker(20, 0);
+        for (int i = 0; i < 4; i++) {
+            fail(breaker);
+        }
+        Thread.sleep(30);
+        //试探调用抛出Error，没有记录结果，下一次调用仍可作为试探
+        assertThrows(StackOverflowError.class, () -> breaker.execute(() -> {
+            throw new StackOverflowError();
+        }));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals("ok", breaker.execute(() -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void concurrencyLimit() throws Exception {
+        CircuitBreaker breaker = breaker(60000, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> breaker.execute(() -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "ok";
+        }));
+        holder.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, breaker.getActiveCalls());
+        assertThrows(CircuitBreakerOpenException.class, () -> breaker.execute(() -> "other"));
+        release.countDown();
+        holder.join(5000);
+        assertEquals(0, breaker.getActiveCalls());
+        assertEquals("ok", breaker.execute(() -> "ok"));
+        //并发已满的拒绝不计入失败率
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
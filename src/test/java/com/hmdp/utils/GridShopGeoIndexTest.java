@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import com.hmdp.utils.ShopGeoIndex.Hit;
+import com.hmdp.utils.ShopGeoIndex.Location;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GridShopGeoIndexTest {
+
+    private static final long TYPE = 1L;
+
+    /**
+     * 杭州附近的随机店铺，部分店铺坐标重复，用来检查距离相同时按id排序
+     */
+    private static List<Location> locations(int n, long seed) {
+        Random random = new Random(seed);
+        List<Location> list = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) {
+            if (i % 10 == 0) {
+                Location same = list.get(i - 2);
+                list.add(new Location(i, same.getX(), same.getY()));
+            } else {
+                list.add(new Location(i, 120 + random.nextDouble() * 0.5, 30 + random.nextDouble() * 0.5));
+            }
+        }
+        return list;
+    }
+
+    private static GridShopGeoIndex index(List<Location> list, double cellDegrees) {
+        GridShopGeoIndex index = new GridShopGeoIndex(cellDegrees);
+        index.load(Collections.singletonMap(TYPE, list));
+        return index;
+    }
+
+    /**
+     * 暴力计算全部距离后排序，作为对照结果
+     */
+    private static List<Long> bruteForce(List<Location> list, double x, double y, double radius, int count, Hit after) {
+        return list.stream()
+                .map(l -> new Hit(l.getId(), GridShopGeoIndex.distance(x, y, l.getX(), l.getY())))
+                .filter(h -> radius <= 0 || h.getDistance() <= radius)
+                .filter(h -> h.isAfter(after))
+                .sorted(ShopGeoIndex.ORDER)
+                .limit(count)
+                .map(Hit::getId)
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> ids(List<Hit> hits) {
+        return hits.stream().map(Hit::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    void radiusMatchesBruteForce() {
+        List<Location> list = locations(2000, 1);
+        Random random = new Random(2);
+        for (double cell : new double[]{0.001, 0.01, 0.1, 1}) {
+            GridShopGeoIndex index = index(list, cell);
+            for (int i = 0; i < 50; i++) {
+                double x = 119.9 + random.nextDouble() * 0.7;
+                double y = 29.9 + random.nextDouble() * 0.7;
+                double radius = 500 + random.nextDouble() * 10000;
+                assertEquals(bruteForce(list, x, y, radius, 20, null),
+                        ids(index.search(TYPE, x, y, radius, 20, null)), "cell=" + cell);
+            }
+        }
+    }
+
+    @Test
+    void nearestMatchesBruteForce() {
+        List<Location> list = locations(2000, 3);
+        GridShopGeoIndex index = index(list, 0.01);
+        Random random = new Random(4);
+        for (int i = 0; i < 50; i++) {
+            double x = 119 + random.nextDouble() * 3;
+            double y = 29 + random.nextDouble() * 3;
+            assertEquals(bruteForce(list, x, y, 0, 10, null), ids(index.search(TYPE, x, y, 0, 10, null)));
+        }
+    }
+
+    @Test
+    void cursorPagesCoverAllResultsOnce() {
+        List<Location> list = locations(500, 5);
+        GridShopGeoIndex index = index(list, 0.01);
+        double x = 120.25, y = 30.25, radius = 20000;
+        List<Long> expected = bruteForce(list, x, y, radius, Integer.MAX_VALUE, null);
+        List<Long> paged = new ArrayList<>();
+        Hit after = null;
+        while (true) {
+            List<Hit> page = index.search(TYPE, x, y, radius, 7, after);
+            if (page.isEmpty()) {
+                break;
+            }
+            paged.addAll(ids(page));
+            after = page.get(page.size() - 1);
+        }
+        assertEquals(expected, paged);
+        assertEquals(expected.size(), new HashSet<>(paged).size());
+    }
+
+    @Test
+    void putAndRemoveAreVisible() {
+        List<Location> list = new ArrayList<>(locations(100, 6));
+        GridShopGeoIndex index = index(list, 0.01);
+        double x = 121.5, y = 31.5;
+        //1.新增一家离查询点最近的店铺
+        index.put(TYPE, new Location(1000, x, y));
+        assertEquals(1000L, index.search(TYPE, x, y, 0, 1, null).get(0).getId());
+        //2.移动已有店铺，旧坐标不再命中
+        index.put(TYPE, new Location(1000, 120.1, 30.1));
+        list.add(new Location(1000, 120.1, 30.1));
+        assertEquals(bruteForce(list, x, y, 0, 5, null), ids(index.search(TYPE, x, y, 0, 5, null)));
+        //3.删除后不再返回
+        index.remove(TYPE, 1000L);
+        list.remove(list.size() - 1);
+        assertEquals(bruteForce(list, x, y, 0, 5, null), ids(index.search(TYPE, x, y, 0, 5, null)));
+    }
+
+    @Test
+    void emptyCases() {
+        GridShopGeoIndex index = index(locations(10, 7), 0.01);
+        assertTrue(index.search(2L, 120, 30, 0, 10, null).isEmpty());
+        assertTrue(index.search(TYPE, 120, 30, 0, 0, null).isEmpty());
+        //半径内没有店铺
+        assertTrue(index.search(TYPE, 0, 0, 1000, 10, null).isEmpty());
+        index.remove(2L, 1L);
+        index.load(Collections.emptyMap());
+        assertTrue(index.search(TYPE, 120, 30, 0, 10, null).isEmpty());
+        index.put(TYPE, new Location(1, 120, 30));
+        assertEquals(Collections.singletonList(1L), ids(index.search(TYPE, 120, 30, 0, 10, null)));
+        index.remove(TYPE, 1L);
+        assertTrue(index.search(TYPE, 120, 30, 0, 10, null).isEmpty());
+    }
+}
@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedisBloomFilterTest {
+
+    @Test
+    void addDuringRebuildIsKept() {
+        RedisBloomFilter filter = new RedisBloomFilter("shop", 1000, 0.01);
+        filter.rebuild(sink -> {
+            for (long id = 1; id <= 100; id++) {
+                sink.accept(id);
+                if (id == 50) {
+                    //加载过程中其他线程新增的元素
+                    filter.putLocal(9999L);
+                }
+            }
+        });
+        assertTrue(filter.mightContain(9999L));
+        for (long id = 1; id <= 100; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+    }
+
+    @Test
+    void addDuringLoadBytesIsKept() {
+        RedisBloomFilter source = new RedisBloomFilter("shop", 1000, 0.01);
+        source.putLocal(1L);
+        byte[] bytes = source.toBytes();
+        RedisBloomFilter filter = new RedisBloomFilter("shop", 1000, 0.01);
+        assertTrue(filter.loadBytes(() -> {
+            filter.putLocal(2L);
+            return bytes;
+        }));
+        assertTrue(filter.mightContain(1L));
+        assertTrue(filter.mightContain(2L));
+    }
+
+    @Test
+    void missingBitmapKeepsCurrentBits() {
+        RedisBloomFilter filter = new RedisBloomFilter("shop", 1000, 0.01);
+        filter.putLocal(1L);
+        assertFalse(filter.loadBytes(() -> null));
+        assertTrue(filter.mightContain(1L));
+    }
+
+    @Test
+    void bytesRoundTrip() {
+        RedisBloomFilter source = new RedisBloomFilter("shop", 1000, 0.01);
+        for (long id = 1; id <= 200; id++) {
+            source.putLocal(id);
+        }
+        RedisBloomFilter copy = new RedisBloomFilter("shop", 1000, 0.01);
+        copy.loadBytes(source::toBytes);
+        assertArrayEquals(source.toBytes(), copy.toBytes());
+    }
+}
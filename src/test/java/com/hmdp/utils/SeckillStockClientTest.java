@@ -0,0 +1,192 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.cluster.SlotHash;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.*;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * key与售罄标记不需要Redis；seckill.lua的用例需要本机6379端口的Redis，连接不上时跳过
+ */
+class SeckillStockClientTest {
+
+    private static LettuceConnectionFactory factory;
+
+    private static StringRedisTemplate redis;
+
+    //本次运行使用的优惠券id，避免与其他数据冲突
+    private final long voucherId = 900000000L + new Random().nextInt(1000000);
+
+    private SeckillStockClient client;
+
+    @BeforeAll
+    static void connect() {
+        try {
+            factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", 6379),
+                    LettuceClientConfiguration.builder().commandTimeout(Duration.ofMillis(500)).build());
+            factory.afterPropertiesSet();
+            factory.getConnection().ping();
+            redis = new StringRedisTemplate(factory);
+        } catch (Exception e) {
+            redis = null;
+        }
+    }
+
+    @AfterAll
+    static void disconnect() {
+        if (factory != null) {
+            factory.destroy();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        client = new SeckillStockClient();
+        ReflectionTestUtils.setField(client, "stringRedisTemplate", redis != null ? redis : mock(StringRedisTemplate.class));
+        ReflectionTestUtils.setField(client, "segments", 4);
+        ReflectionTestUtils.setField(client, "segmentMinStock", 10);
+        ReflectionTestUtils.setField(client, "soldOutTtlSeconds", 60L);
+    }
+
+    @Test
+    void segmentKeysShareOneSlot() {
+        assertEquals(SECKILL_STOCK_KEY + "{7}", SeckillStockClient.stockKey(7L, 1, 0));
+        assertEquals(SECKILL_ORDER_KEY + "{7}", SeckillStockClient.orderKey(7L, 1, 0));
+        Set<Integer> slots = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            //同一段的库存与订单在同一个槽中，一次脚本调用不会跨槽
+            int slot = SlotHash.getSlot(SeckillStockClient.stockKey(7L, 4, i));
+            assertEquals(slot, SlotHash.getSlot(SeckillStockClient.orderKey(7L, 4, i)));
+            slots.add(slot);
+        }
+        //各段使用不同的哈希标签，可以分布到不同的分片
+        assertEquals(4, slots.size());
+    }
+
+    @Test
+    void staleSoldOutIsIgnoredAfterReplenish() {
+        //1.代数1售罄
+        client.markSoldOut(7L, 1);
+        assertTrue(client.isSoldOut(7L));
+        //2.补货到代数2，清除标记
+        ReflectionTestUtils.invokeMethod(client, "onMessage", "available:7:2");
+        assertFalse(client.isSoldOut(7L));
+        //3.补货之后才到达的旧代数售罄消息被忽略
+        ReflectionTestUtils.invokeMethod(client, "onMessage", "soldout:7:1");
+        assertFalse(client.isSoldOut(7L));
+        client.markSoldOut(7L, 1);
+        assertFalse(client.isSoldOut(7L));
+        //4.新代数售罄后重新标记，旧代数的补货消息不清除
+        ReflectionTestUtils.invokeMethod(client, "onMessage", "soldout:7:2");
+        assertTrue(client.isSoldOut(7L));
+        ReflectionTestUtils.invokeMethod(client, "onMessage", "available:7:1");
+        assertTrue(client.isSoldOut(7L));
+    }
+
+    @Test
+    void soldOutMarkExpires() {
+        ReflectionTestUtils.setField(client, "soldOutTtlSeconds", -1L);
+        client.markSoldOut(7L, 1);
+        assertFalse(client.isSoldOut(7L));
+    }
+
+    private int order(long userId) {
+        return client.reserve(voucherId, userId).getCode();
+    }
+
+    private void cleanUp(int k) {
+        List<String> keys = new ArrayList<>(Arrays.asList(SECKILL_SEGMENTS_KEY + voucherId, SECKILL_GENERATION_KEY + voucherId,
+                SeckillStockClient.stockKey(voucherId, 1, 0), SeckillStockClient.orderKey(voucherId, 1, 0)));
+        for (int i = 0; i < k; i++) {
+            keys.add(SeckillStockClient.stockKey(voucherId, k, i));
+            keys.add(SeckillStockClient.orderKey(voucherId, k, i));
+        }
+        redis.delete(keys);
+    }
+
+    @Test
+    void segmentedReserveNeverOversells() {
+        assumeTrue(redis != null, "本机没有可用的Redis");
+        try {
+            assertEquals(4, client.init(voucherId, 10));
+            //1.各段库存为3、3、2、2，用户所在段售罄后转到其他段，总数不超过库存
+            List<Long> succeeded = new ArrayList<>();
+            Set<Integer> codes = new HashSet<>();
+            for (long userId = 1; userId <= 30; userId++) {
+                int code = order(userId);
+                codes.add(code);
+                if (code == 0) {
+                    succeeded.add(userId);
+                }
+            }
+            assertEquals(10, succeeded.size());
+            assertEquals(new HashSet<>(Arrays.asList(0, 1)), codes);
+            assertEquals(0, client.remaining(voucherId));
+            //2.一人一单，从其他段扣减的用户也记录在所在段中
+            for (Long userId : succeeded) {
+                assertEquals(2, order(userId));
+            }
+            //3.补货后按新的代数判断售罄
+            SeckillStockClient.Reservation soldOut = client.reserve(voucherId, 100L);
+            assertEquals(1, soldOut.getCode());
+            assertEquals(0L, soldOut.getGeneration());
+            client.replenish(voucherId, 3);
+            SeckillStockClient.Reservation reservation = client.reserve(voucherId, 100L);
+            assertEquals(0, reservation.getCode());
+            assertEquals(1L, reservation.getGeneration());
+            assertEquals(2, client.remaining(voucherId));
+            //4.订单消息发送失败时撤销，库存与下单资格都恢复
+            client.release(voucherId, 100L, reservation);
+            assertEquals(3, client.remaining(voucherId));
+            assertEquals(0, order(100));
+        } finally {
+            cleanUp(4);
+        }
+    }
+
+    @Test
+    void staleSegmentCountReturns4() {
+        assumeTrue(redis != null, "本机没有可用的Redis");
+        try {
+            //其他节点在写入段数之前读取并缓存了1
+            SeckillStockClient other = new SeckillStockClient();
+            ReflectionTestUtils.setField(other, "stringRedisTemplate", redis);
+            assertEquals(1, other.segments(voucherId));
+            assertEquals(4, client.init(voucherId, 10));
+            assertEquals(4, other.reserve(voucherId, 1L).getCode());
+            other.evictSegments(voucherId);
+            assertEquals(0, other.reserve(voucherId, 1L).getCode());
+        } finally {
+            cleanUp(4);
+        }
+    }
+
+    @Test
+    void plainReserve() {
+        assumeTrue(redis != null, "本机没有可用的Redis");
+        try {
+            assertEquals(1, client.init(voucherId, 2));
+            assertEquals(0, order(1));
+            assertEquals(2, order(1));
+            assertEquals(0, order(2));
+            assertEquals(1, order(3));
+            assertEquals(0, client.remaining(voucherId));
+        } finally {
+            cleanUp(0);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ShopListClientTest {
+
+    private static final long MAX_ID = (1L << 26) - 1;
+
+    private static final long MAX_VALUE = (1L << 27) - 1;
+
+    private static Shop shop(long id, Integer sold) {
+        return new Shop().setId(id).setTypeId(1L).setSold(sold);
+    }
+
+    /**
+     * id部分：分数的低26位是2^26 - 1 - id
+     */
+    private static long idOf(double score) {
+        return MAX_ID - (((long) score) & MAX_ID);
+    }
+
+    @Test
+    void scoreRoundTrip() {
+        long[][] cases = {{0, 2}, {1, 1}, {4215, 1}, {0, MAX_ID}, {MAX_VALUE, 1}, {MAX_VALUE, MAX_ID}};
+        for (long[] c : cases) {
+            double score = ShopListClient.score(shop(c[1], (int) c[0]), "sold");
+            //分数在double的精度内，没有舍入
+            assertEquals((long) score, (double) (long) score);
+            assertEquals(c[0], ShopListClient.valueOf(score));
+            assertEquals(c[1], idOf(score));
+        }
+    }
+
+    @Test
+    void valueIsClamped() {
+        assertEquals(0, ShopListClient.valueOf(ShopListClient.score(shop(1, null), "sold")));
+        assertEquals(0, ShopListClient.valueOf(ShopListClient.score(shop(1, -5), "sold")));
+        assertEquals(MAX_VALUE, ShopListClient.valueOf(ShopListClient.score(shop(1, Integer.MAX_VALUE), "sold")));
+        Shop shop = new Shop().setId(7L).setScore(45).setComments(3000);
+        assertEquals(45, ShopListClient.valueOf(ShopListClient.score(shop, "score")));
+        assertEquals(3000, ShopListClient.valueOf(ShopListClient.score(shop, "comments")));
+    }
+
+    @Test
+    void scoreOrderIsValueDescThenIdAsc() {
+        Random random = new Random(1);
+        List<Shop> shops = new ArrayList<>();
+        for (long id = 1; id <= 1000; id++) {
+            //取值范围小，保证有大量相同的值
+            shops.add(shop(id * 997 % MAX_ID, random.nextInt(20)));
+        }
+        List<Long> byScore = shops.stream()
+                .sorted(Comparator.comparingDouble((Shop s) -> ShopListClient.score(s, "sold")).reversed())
+                .map(Shop::getId).collect(Collectors.toList());
+        List<Long> expected = shops.stream()
+                .sorted(Comparator.comparing(Shop::getSold).reversed().thenComparing(Shop::getId))
+                .map(Shop::getId).collect(Collectors.toList());
+        assertEquals(expected, byScore);
+        assertEquals(shops.size(), shops.stream().map(s -> ShopListClient.score(s, "sold")).distinct().count());
+    }
+
+    @Test
+    void idOutOfRangeIsRejected() {
+        assertTrue(ShopListClient.inRange(MAX_ID));
+        assertFalse(ShopListClient.inRange(MAX_ID + 1));
+        assertFalse(ShopListClient.inRange(0L));
+        assertFalse(ShopListClient.inRange(null));
+        //超出范围的id会改写排序字段的位，直接拒绝
+        assertThrows(IllegalArgumentException.class, () -> ShopListClient.score(shop(MAX_ID + 1, 1), "sold"));
+    }
+
+    /**
+     * shop_sold_incr.lua需要本机6379端口的Redis，连接不上时跳过
+     */
+    @Test
+    void incrementSoldKeepsIdPartAndClamps() {
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", 6379),
+                LettuceClientConfiguration.builder().commandTimeout(Duration.ofMillis(500)).build());
+        factory.afterPropertiesSet();
+        try {
+            StringRedisTemplate redis = new StringRedisTemplate(factory);
+            redis.afterPropertiesSet();
+            boolean available;
+            try {
+                redis.getRequiredConnectionFactory().getConnection().ping();
+                available = true;
+            } catch (Exception e) {
+                available = false;
+            }
+            assumeTrue(available, "本机没有可用的Redis");
+            ShopListClient client = new ShopListClient();
+            ReflectionTestUtils.setField(client, "stringRedisTemplate", redis);
+            long typeId = 900000000L + new Random().nextInt(1000000);
+            String key = ShopListClient.key(typeId, "sold");
+            String global = ShopListClient.globalKey("sold");
+            try {
+                redis.opsForZSet().add(key, String.valueOf(MAX_ID), ShopListClient.score(shop(MAX_ID, 40), "sold"));
+                //1.累加后保留id部分
+                client.incrementSold(typeId, MAX_ID, 5);
+                double score = redis.opsForZSet().score(key, String.valueOf(MAX_ID));
+                assertEquals(45, ShopListClient.valueOf(score));
+                assertEquals(MAX_ID, idOf(score));
+                //2.超出上限与下限时截断
+                client.incrementSold(typeId, MAX_ID, MAX_VALUE);
+                assertEquals(MAX_VALUE, ShopListClient.valueOf(redis.opsForZSet().score(key, String.valueOf(MAX_ID))));
+                client.incrementSold(typeId, MAX_ID, -2 * MAX_VALUE);
+                score = redis.opsForZSet().score(key, String.valueOf(MAX_ID));
+                assertEquals(0, ShopListClient.valueOf(score));
+                assertEquals(MAX_ID, idOf(score));
+                //3.不在有序集合中的店铺不写入
+                client.incrementSold(typeId, 7L, 5);
+                assertNull(redis.opsForZSet().score(key, "7"));
+            } finally {
+                redis.delete(key);
+                redis.opsForZSet().remove(global, String.valueOf(MAX_ID), "7");
+            }
+        } finally {
+            factory.destroy();
+        }
+    }
+}
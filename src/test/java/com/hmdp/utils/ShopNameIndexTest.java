@@ -0,0 +1,198 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ShopNameIndexTest {
+
+    //店铺表，按id排序
+    private final TreeMap<Long, Shop> db = new TreeMap<>();
+
+    private ShopMapper shopMapper;
+
+    private ShopNameIndex index;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        shopMapper = mock(ShopMapper.class);
+        //全量加载：店铺数量小于一批，一次返回全部
+        when(shopMapper.selectPage(any(), any())).thenAnswer(invocation -> {
+            Page<Shop> page = invocation.getArgument(0);
+            page.setRecords(new ArrayList<>(db.values()));
+            return page;
+        });
+        //按id批量读取店铺，条件中的参数都是id
+        when(shopMapper.selectList(any())).thenAnswer(invocation -> {
+            QueryWrapper<Shop> wrapper = invocation.getArgument(0);
+            //生成SQL片段后才会填充参数
+            wrapper.getSqlSegment();
+            return wrapper.getParamNameValuePairs().values().stream()
+                    .map(id -> db.get(((Number) id).longValue()))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        });
+        index = new ShopNameIndex();
+        ReflectionTestUtils.setField(index, "shopMapper", shopMapper);
+        ReflectionTestUtils.setField(index, "stringRedisTemplate", mock(StringRedisTemplate.class));
+    }
+
+    private void put(long id, String name, String area, int score) {
+        db.put(id, new Shop().setId(id).setName(name).setArea(area).setScore(score));
+    }
+
+    /**
+     * 逐个店铺判断档位后排序，作为对照结果
+     */
+    private List<Long> bruteForce(String keyword, int count, ShopNameIndex.Hit after) {
+        String q = keyword.replaceAll("\\s", "").toLowerCase();
+        Comparator<ShopNameIndex.Hit> order = Comparator.comparingInt(ShopNameIndex.Hit::getTier)
+                .thenComparing(Comparator.comparingInt(ShopNameIndex.Hit::getScore).reversed())
+                .thenComparingLong(ShopNameIndex.Hit::getId);
+        List<ShopNameIndex.Hit> hits = new ArrayList<>();
+        for (Shop shop : db.values()) {
+            String name = shop.getName().toLowerCase();
+            String area = shop.getArea().toLowerCase();
+            int tier = name.startsWith(q) ? 0 : name.contains(q) ? 1 : area.contains(q) ? 2 : -1;
+            if (tier >= 0) {
+                hits.add(new ShopNameIndex.Hit(shop.getId(), tier, shop.getScore()));
+            }
+        }
+        return hits.stream()
+                .filter(h -> after == null || order.compare(h, after) > 0)
+                .sorted(order)
+                .limit(count)
+                .map(ShopNameIndex.Hit::getId)
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> ids(List<ShopNameIndex.Hit> hits) {
+        return hits.stream().map(ShopNameIndex.Hit::getId).collect(Collectors.toList());
+    }
+
+    private void randomShops(int n) {
+        String chars = "茶餐厅火锅烤肉海底捞西湖区拱墅ab";
+        Random random = new Random(1);
+        for (long id = 1; id <= n; id++) {
+            StringBuilder name = new StringBuilder();
+            StringBuilder area = new StringBuilder();
+            for (int i = 0; i < 2 + random.nextInt(5); i++) {
+                name.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            for (int i = 0; i < 2 + random.nextInt(3); i++) {
+                area.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            put(id, name.toString(), area.toString(), random.nextInt(10));
+        }
+    }
+
+    @Test
+    void searchMatchesBruteForce() {
+        randomShops(500);
+        for (String keyword : new String[]{"茶", "火锅", "海底捞", "西湖", "AB", "b a", "餐厅火", "没有"}) {
+            assertEquals(bruteForce(keyword, 20, null), ids(index.search(keyword, 20, null)), keyword);
+        }
+    }
+
+    @Test
+    void cursorPagesCoverAllResultsOnce() {
+        randomShops(500);
+        List<Long> expected = bruteForce("火", Integer.MAX_VALUE, null);
+        List<Long> paged = new ArrayList<>();
+        ShopNameIndex.Hit after = null;
+        while (true) {
+            List<ShopNameIndex.Hit> page = index.search("火", 9, after);
+            if (page.isEmpty()) {
+                break;
+            }
+            paged.addAll(ids(page));
+            //经过编码与解码的游标
+            after = ShopNameIndex.decodeCursor(ShopNameIndex.encodeCursor(page.get(page.size() - 1)));
+        }
+        assertEquals(expected, paged);
+    }
+
+    @Test
+    void tiersAndScores() {
+        put(1, "海底捞火锅", "拱墅区", 40);
+        put(2, "小龙坎火锅", "西湖区", 48);
+        put(3, "火锅先生", "西湖区", 30);
+        put(4, "茶餐厅", "火锅一条街", 50);
+        put(5, "火锅先生", "拱墅区", 30);
+        //名称前缀、名称包含、商圈包含依次排列，同档按评分倒序、id正序
+        assertEquals(Arrays.asList(3L, 5L, 2L, 1L, 4L), ids(index.search("火锅", 10, null)));
+        assertEquals(Arrays.asList(2L, 3L), ids(index.search(" 西 湖 ", 10, null)));
+    }
+
+    @Test
+    void refreshUpdatesPostings() {
+        put(1, "海底捞火锅", "拱墅区", 40);
+        put(2, "茶餐厅", "西湖区", 30);
+        assertEquals(2, index.rebuild());
+        //1.改名后旧名称不再命中
+        put(1, "老头儿油爆虾", "拱墅区", 40);
+        index.refresh(1L);
+        assertTrue(index.search("火锅", 10, null).isEmpty());
+        assertEquals(Collections.singletonList(1L), ids(index.search("油爆虾", 10, null)));
+        //2.新增
+        put(3, "火锅先生", "西湖区", 35);
+        index.refresh(3L);
+        assertEquals(Arrays.asList(3L, 2L), ids(index.search("西湖", 10, null)));
+        //3.删除
+        db.remove(2L);
+        index.refresh(2L);
+        assertEquals(Collections.singletonList(3L), ids(index.search("西湖", 10, null)));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void pendingIdsAreReadInOneQuery() {
+        put(1, "海底捞火锅", "拱墅区", 40);
+        //加载前收到多个店铺id，加载后一次查询读取
+        put(2, "火锅先生", "西湖区", 30);
+        index.refresh(2L);
+        put(3, "小龙坎火锅", "西湖区", 48);
+        index.refresh(3L);
+        db.remove(1L);
+        index.refresh(1L);
+        assertEquals(Arrays.asList(2L, 3L), ids(index.search("火锅", 10, null)));
+        verify(shopMapper, times(1)).selectList(any());
+    }
+
+    @Test
+    void refreshBeforeLoadIsAppliedAfterLoad() {
+        put(1, "海底捞火锅", "拱墅区", 40);
+        //加载前收到的店铺id先记录，加载完成后重新读取
+        index.refresh(1L);
+        verify(shopMapper, never()).selectList(any());
+        assertEquals(Collections.singletonList(1L), ids(index.search("火锅", 10, null)));
+        verify(shopMapper).selectList(any());
+    }
+
+    @Test
+    void emptyCases() {
+        put(1, "海底捞火锅", "拱墅区", 40);
+        put(2, "abba", "西湖区", 40);
+        assertTrue(index.search("", 10, null).isEmpty());
+        assertTrue(index.search(null, 10, null).isEmpty());
+        assertTrue(index.search("火锅", 0, null).isEmpty());
+        //bigram都存在但名称不包含关键字
+        assertTrue(index.search("aba", 10, null).isEmpty());
+        assertTrue(index.search("海火", 10, null).isEmpty());
+        assertNull(ShopNameIndex.decodeCursor(""));
+        assertThrows(IllegalArgumentException.class, () -> ShopNameIndex.decodeCursor("YWJj"));
+    }
+}
@@ -0,0 +1,150 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @Test
+    void concurrentCallsShareOneLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        //1.第一个调用者阻塞在加载中
+        Caller first = new Caller(() -> singleFlight.execute("k", () -> {
+            loads.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "v";
+        }, 5, TimeUnit.SECONDS));
+        first.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        //2.其余调用者进入等待后再完成加载
+        List<Caller> waiters = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            Caller waiter = new Caller(() -> singleFlight.execute("k", () -> {
+                loads.incrementAndGet();
+                return "other";
+            }, 5, TimeUnit.SECONDS));
+            waiter.start();
+            waiters.add(waiter);
+        }
+        for (Caller waiter : waiters) {
+            waiter.awaitWaiting();
+        }
+        assertEquals(1, singleFlight.size());
+        release.countDown();
+        assertEquals("v", first.result());
+        for (Caller waiter : waiters) {
+            assertEquals("v", waiter.result());
+        }
+        assertEquals(1, loads.get());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    void waitersReceiveTheSameFailure() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("boom");
+        Caller first = new Caller(() -> singleFlight.execute("k", () -> {
+            started.countDown();
+            await(release);
+            throw failure;
+        }, 5, TimeUnit.SECONDS));
+        first.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Caller waiter = new Caller(() -> singleFlight.execute("k", () -> "other", 5, TimeUnit.SECONDS));
+        waiter.start();
+        waiter.awaitWaiting();
+        release.countDown();
+        assertSame(failure, first.error());
+        assertSame(failure, waiter.error());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    void waiterTimesOut() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Caller first = new Caller(() -> singleFlight.execute("k", () -> {
+            started.countDown();
+            await(release);
+            return "v";
+        }, 5, TimeUnit.SECONDS));
+        first.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> singleFlight.execute("k", () -> "other", 10, TimeUnit.MILLISECONDS));
+        assertTrue(e.getCause() instanceof TimeoutException);
+        release.countDown();
+        assertEquals("v", first.result());
+    }
+
+    @Test
+    void failureIsNotCached() {
+        assertThrows(IllegalStateException.class, () -> singleFlight.execute("k", () -> {
+            throw new IllegalStateException("boom");
+        }, 1, TimeUnit.SECONDS));
+        assertEquals(0, singleFlight.size());
+        assertEquals("v", singleFlight.execute("k", () -> "v", 1, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 在独立线程中调用，可以判断是否已进入等待
+     */
+    private static class Caller extends Thread {
+        private final Callable<Object> call;
+        private volatile Object value;
+        private volatile Throwable error;
+
+        private Caller(Callable<Object> call) {
+            this.call = call;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                value = call.call();
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+
+        private void awaitWaiting() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (getState() != State.TIMED_WAITING && getState() != State.WAITING) {
+                assertTrue(System.currentTimeMillis() < deadline, "调用未进入等待");
+                Thread.sleep(1);
+            }
+        }
+
+        private Object result() throws InterruptedException {
+            join(5000);
+            assertNull(error);
+            return value;
+        }
+
+        private Throwable error() throws InterruptedException {
+            join(5000);
+            return error;
+        }
+    }
+}